@@ -0,0 +1,232 @@
+package com.colabriq.vertx.eventbus;
+
+import static com.colabriq.vertx.eventbus.EventBusStreamSender.CANCEL;
+import static com.colabriq.vertx.eventbus.EventBusStreamSender.CREDIT;
+import static com.colabriq.vertx.eventbus.EventBusStreamSender.CREDIT_SUFFIX;
+import static com.colabriq.vertx.eventbus.EventBusStreamSender.DATA;
+import static com.colabriq.vertx.eventbus.EventBusStreamSender.END;
+import static com.colabriq.vertx.eventbus.EventBusStreamSender.ERROR;
+import static com.colabriq.vertx.eventbus.EventBusStreamSender.SEQ;
+import static com.colabriq.vertx.eventbus.EventBusStreamSender.TYPE;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import com.colabriq.vertx.stream.ReadableWriteStream;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Reassembles a stream sent by an {@link EventBusStreamSender} to its address, as a {@link ReadStream}
+ * or, through {@link #toChannel()}, a channel for a thread of its own.
+ *
+ * Chunks are handed back as credit once half the window has been consumed, so the sender is only ever
+ * as far ahead as the window, and a chunk out of sequence fails the stream. Like other Vert.x streams it
+ * is meant to be used from one context.
+ *
+ * Each address carries one stream from one sender, as chunks are sequenced per stream rather than per
+ * sender. Use a fresh address, e.g. a UUID, for every stream.
+ */
+public class EventBusStreamReceiver implements ReadStream<Buffer> {
+	private final EventBus eventBus;
+	private final String address;
+	private final int window;
+	private final MessageConsumer<Object> consumer;
+	
+	private Handler<Buffer> dataHandler;
+	private Handler<Void> endHandler;
+	private Handler<Throwable> exceptionHandler;
+	
+	private final ArrayDeque<Buffer> pending = new ArrayDeque<>();
+	private long demand = Long.MAX_VALUE;
+	private long expectedSeq = 0;
+	private int consumed = 0;
+	private boolean ended = false, endEmitted = false, emitting = false;
+	private Throwable failure = null;
+	
+	public EventBusStreamReceiver(Vertx vertx, String address) {
+		this(vertx, address, EventBusStreamSender.DEFAULT_WINDOW);
+	}
+	
+	/**
+	 * @param window how many messages may be unacknowledged, which has to match the sender's
+	 */
+	public EventBusStreamReceiver(Vertx vertx, String address, int window) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("Window must be positive: " + window);
+		}
+		
+		this.eventBus = vertx.eventBus();
+		this.address = address;
+		this.window = window;
+		
+		LocalBufferCodec.register(eventBus);
+		this.consumer = eventBus.consumer(address, this::handleMessage);
+	}
+	
+	/**
+	 * Returns a channel reading the stream, which can be read from a thread of its own.
+	 * If the stream fails the channel throws the failure once what arrived before it has been read.
+	 */
+	public ReadableWriteStream toChannel() {
+		var channel = new ReadableWriteStream();
+		
+		pipe()
+			.endOnFailure(false)
+			.to(channel, result -> {
+				if (result.failed()) {
+					channel.fail(result.cause());
+				}
+			});
+			
+		return channel;
+	}
+	
+	/**
+	 * Stops receiving, telling the sender to stop too. The stream fails rather than ends,
+	 * as it is incomplete.
+	 */
+	public void cancel() {
+		if (!ended) {
+			eventBus.send(address + CREDIT_SUFFIX, 0, new DeliveryOptions().addHeader(TYPE, CANCEL));
+			fail(new IOException("Stream at " + address + " cancelled"));
+		}
+	}
+	
+	private void handleMessage(Message<Object> message) {
+		if (ended) {
+			return;
+		}
+		
+		var headers = message.headers();
+		var seq = Long.parseLong(headers.get(SEQ));
+		if (seq != expectedSeq) {
+			// the sender has gone or something was lost, either way the stream is incomplete
+			fail(new IOException("Expected chunk " + expectedSeq + " from " + address + " but got " + seq));
+			return;
+		}
+		
+		expectedSeq++;
+		
+		switch (headers.get(TYPE)) {
+			case DATA:
+				pending.add((Buffer)message.body());
+				break;
+			case END:
+				close(null);
+				break;
+			case ERROR:
+				fail(new IOException("Sender to " + address + " failed: " + message.body()));
+				return;
+			default:
+				fail(new IOException("Unexpected message type " + headers.get(TYPE) + " at " + address));
+				return;
+		}
+		
+		emit();
+	}
+	
+	private void close(Throwable cause) {
+		ended = true;
+		failure = cause;
+		consumer.unregister();
+	}
+	
+	private void fail(Throwable cause) {
+		close(cause);
+		pending.clear();
+		endEmitted = true;
+		
+		if (exceptionHandler != null) {
+			exceptionHandler.handle(cause);
+		}
+	}
+	
+	@Override
+	public EventBusStreamReceiver handler(Handler<Buffer> handler) {
+		this.dataHandler = handler;
+		emit();
+		return this;
+	}
+	
+	@Override
+	public EventBusStreamReceiver endHandler(Handler<Void> handler) {
+		this.endHandler = handler;
+		return this;
+	}
+	
+	@Override
+	public EventBusStreamReceiver exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		return this;
+	}
+	
+	@Override
+	public EventBusStreamReceiver pause() {
+		this.demand = 0;
+		return this;
+	}
+	
+	@Override
+	public EventBusStreamReceiver resume() {
+		return fetch(Long.MAX_VALUE);
+	}
+	
+	@Override
+	public EventBusStreamReceiver fetch(long amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("Negative fetch: " + amount);
+		}
+		
+		this.demand += amount;
+		if (this.demand < 0) {
+			this.demand = Long.MAX_VALUE;
+		}
+		
+		emit();
+		return this;
+	}
+	
+	/**
+	 * Emits pending chunks while there is demand, handing back credit as they go, then the end
+	 */
+	private void emit() {
+		if (emitting || dataHandler == null) {
+			return;
+		}
+		
+		emitting = true;
+		try {
+			while (demand > 0 && !pending.isEmpty()) {
+				var data = pending.poll();
+				if (demand != Long.MAX_VALUE) {
+					demand--;
+				}
+				
+				if (++consumed >= Math.max(1, window / 2) && !ended) {
+					eventBus.send(address + CREDIT_SUFFIX, consumed, new DeliveryOptions().addHeader(TYPE, CREDIT));
+					consumed = 0;
+				}
+				
+				dataHandler.handle(data);
+			}
+			
+			if (ended && failure == null && !endEmitted && pending.isEmpty()) {
+				endEmitted = true;
+				if (endHandler != null) {
+					endHandler.handle(null);
+				}
+			}
+		}
+		finally {
+			emitting = false;
+		}
+	}
+}
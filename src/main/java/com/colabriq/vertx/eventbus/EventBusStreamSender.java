@@ -0,0 +1,259 @@
+package com.colabriq.vertx.eventbus;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Streams buffers written to it over the event bus to an {@link EventBusStreamReceiver} at an address,
+ * as sequenced messages of at most the max chunk size.
+ *
+ * At most the window of messages are unacknowledged at once; the receiver hands back credit as its
+ * reader consumes them, which the sender listens for on the address with {@link #CREDIT_SUFFIX}.
+ * Until then writes queue up and the write queue is full, so a piped source is paused. The receiver
+ * has to be registered before anything is written, as messages sent to nobody are lost.
+ *
+ * Ending the stream completes once the end itself has been sent, after everything queued before it,
+ * and fails if the stream is cancelled or failed first.
+ */
+public class EventBusStreamSender implements WriteStream<Buffer> {
+	public static final int DEFAULT_WINDOW = 16;
+	public static final int DEFAULT_MAX_CHUNK_SIZE = 64 * 1024;
+	
+	static final String CREDIT_SUFFIX = ".credit";
+	static final String TYPE = "type", SEQ = "seq";
+	static final String DATA = "data", END = "end", ERROR = "error", CREDIT = "credit", CANCEL = "cancel";
+	
+	private final EventBus eventBus;
+	private final String address;
+	private final int maxChunkSize;
+	private final MessageConsumer<Integer> creditConsumer;
+	
+	private Handler<Throwable> exceptionHandler;
+	private Handler<Void> drainHandler;
+	
+	// completed once the end has been sent, or failed if the stream is closed first
+	private Handler<AsyncResult<Void>> endHandler;
+	
+	private final ArrayDeque<Buffer> queued = new ArrayDeque<>();
+	private int credit;
+	private long seq = 0;
+	private boolean ended = false, closed = false, drainNeeded = false;
+	private Throwable failure = null;
+	
+	public EventBusStreamSender(Vertx vertx, String address) {
+		this(vertx, address, DEFAULT_WINDOW, DEFAULT_MAX_CHUNK_SIZE);
+	}
+	
+	/**
+	 * @param window how many messages may be unacknowledged, which has to match the receiver's
+	 */
+	public EventBusStreamSender(Vertx vertx, String address, int window, int maxChunkSize) {
+		if (window <= 0 || maxChunkSize <= 0) {
+			throw new IllegalArgumentException("Window and chunk size must be positive: " + window + ", " + maxChunkSize);
+		}
+		
+		this.eventBus = vertx.eventBus();
+		this.address = address;
+		this.maxChunkSize = maxChunkSize;
+		this.credit = window;
+		
+		LocalBufferCodec.register(eventBus);
+		this.creditConsumer = eventBus.consumer(address + CREDIT_SUFFIX, this::handleCredit);
+	}
+	
+	/**
+	 * Sends everything source reads, then the end, or the failure if source fails.
+	 * Completes once everything has been handed to the event bus.
+	 */
+	public Future<Void> send(ReadStream<Buffer> source) {
+		var promise = Promise.<Void>promise();
+		
+		source.pipe()
+			.endOnFailure(false)
+			.to(this, result -> {
+				if (result.failed()) {
+					fail(result.cause());
+				}
+				
+				promise.handle(result);
+			});
+			
+		return promise.future();
+	}
+	
+	private void handleCredit(Message<Integer> message) {
+		if (closed) {
+			return;
+		}
+		
+		if (CANCEL.equals(message.headers().get(TYPE))) {
+			queued.clear();
+			
+			var cause = new IOException("Receiver at " + address + " cancelled the stream");
+			close(cause);
+			if (exceptionHandler != null) {
+				exceptionHandler.handle(cause);
+			}
+			
+			return;
+		}
+		
+		credit += message.body();
+		flush();
+	}
+	
+	/**
+	 * Sends queued chunks while there is credit, then the end once they have all gone
+	 */
+	private void flush() {
+		while (credit > 0 && !queued.isEmpty()) {
+			credit--;
+			send(DATA, queued.poll());
+		}
+		
+		if (queued.isEmpty()) {
+			if (ended) {
+				send(END, null);
+				close(null);
+			}
+			else if (drainNeeded) {
+				drainNeeded = false;
+				if (drainHandler != null) {
+					drainHandler.handle(null);
+				}
+			}
+		}
+	}
+	
+	private void send(String type, Object body) {
+		var options = new DeliveryOptions()
+			.addHeader(TYPE, type)
+			.addHeader(SEQ, Long.toString(seq++));
+			
+		if (body instanceof Buffer) {
+			options.setCodecName(LocalBufferCodec.NAME);
+		}
+		
+		eventBus.send(address, body, options);
+	}
+	
+	@Override
+	public EventBusStreamSender write(Buffer data) {
+		return write(data, null);
+	}
+	
+	@Override
+	public EventBusStreamSender write(Buffer data, Handler<AsyncResult<Void>> handler) {
+		if (failure != null || ended) {
+			complete(handler, failure != null ? failure : new IllegalStateException("Stream ended"));
+			return this;
+		}
+		
+		// slices rather than copies, left alone once sent
+		for (int pos = 0; pos < data.length(); pos += maxChunkSize) {
+			queued.add(data.slice(pos, Math.min(data.length(), pos + maxChunkSize)));
+		}
+		
+		flush();
+		complete(handler, null);
+		return this;
+	}
+	
+	@Override
+	public void end() {
+		end((Handler<AsyncResult<Void>>)null);
+	}
+	
+	@Override
+	public void end(Handler<AsyncResult<Void>> handler) {
+		if (closed) {
+			complete(handler, failure);
+			return;
+		}
+		
+		if (ended) {
+			// still waiting for credit to send the end, so wait along with the first
+			var first = endHandler;
+			endHandler = result -> {
+				complete(first, result.cause());
+				complete(handler, result.cause());
+			};
+			return;
+		}
+		
+		ended = true;
+		endHandler = handler;
+		flush();
+	}
+	
+	/**
+	 * Fails the stream, dropping anything queued and reporting cause to the receiver
+	 */
+	public void fail(Throwable cause) {
+		if (closed) {
+			return;
+		}
+		
+		queued.clear();
+		send(ERROR, String.valueOf(cause.getMessage()));
+		close(cause);
+	}
+	
+	private void close(Throwable cause) {
+		failure = cause;
+		ended = true;
+		closed = true;
+		creditConsumer.unregister();
+		
+		var handler = endHandler;
+		endHandler = null;
+		complete(handler, cause);
+	}
+	
+	private void complete(Handler<AsyncResult<Void>> handler, Throwable cause) {
+		if (handler != null) {
+			handler.handle(cause != null ? Future.failedFuture(cause) : Future.succeededFuture());
+		}
+	}
+	
+	@Override
+	public EventBusStreamSender setWriteQueueMaxSize(int maxSize) {
+		// the window bounds the queue
+		return this;
+	}
+	
+	@Override
+	public boolean writeQueueFull() {
+		if (!queued.isEmpty()) {
+			drainNeeded = true;
+			return true;
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public EventBusStreamSender drainHandler(Handler<Void> handler) {
+		this.drainHandler = handler;
+		return this;
+	}
+	
+	@Override
+	public EventBusStreamSender exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		return this;
+	}
+}
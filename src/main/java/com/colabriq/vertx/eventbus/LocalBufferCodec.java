@@ -0,0 +1,53 @@
+package com.colabriq.vertx.eventbus;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+
+/**
+ * Delivers buffers within the JVM as they are rather than copied, as the default buffer codec does.
+ * Buffers sent with it mustn't be changed afterwards. Across the cluster they are written out as usual.
+ */
+public class LocalBufferCodec implements MessageCodec<Buffer, Buffer> {
+	public static final String NAME = "colabriq-local-buffer";
+	
+	/**
+	 * Registers the codec with eventBus, unless it already is
+	 */
+	public static void register(EventBus eventBus) {
+		try {
+			eventBus.registerCodec(new LocalBufferCodec());
+		}
+		catch (IllegalStateException e) {
+			// already registered
+		}
+	}
+	
+	@Override
+	public void encodeToWire(Buffer buffer, Buffer data) {
+		buffer.appendInt(data.length());
+		buffer.appendBuffer(data);
+	}
+	
+	@Override
+	public Buffer decodeFromWire(int pos, Buffer buffer) {
+		var length = buffer.getInt(pos);
+		pos += 4;
+		return buffer.getBuffer(pos, pos + length);
+	}
+	
+	@Override
+	public Buffer transform(Buffer data) {
+		return data;
+	}
+	
+	@Override
+	public String name() {
+		return NAME;
+	}
+	
+	@Override
+	public byte systemCodecID() {
+		return -1;
+	}
+}
@@ -0,0 +1,206 @@
+package com.colabriq.vertx.rpc;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.colabriq.vertx.rpc.RpcClient.BlockingCall;
+import com.colabriq.vertx.stream.ReadableWriteStream;
+import com.colabriq.vertx.stream.WritableReadStream;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+/**
+ * Hands out blocking calls made through one {@link RpcClient}, so calls to a host share its connection.
+ *
+ * The bridges behind each call are allocated up front and reset for the next call once a call is closed,
+ * provided it succeeded and is finished with. At most the max in-flight calls run against each host
+ * at once; further calls wait their turn and start as earlier ones complete. Closing the pool fails
+ * the calls still waiting and any made afterwards.
+ */
+public class RpcCallPool implements AutoCloseable {
+	private static class Bridges {
+		private final WritableReadStream request;
+		private final ReadableWriteStream response;
+		private Future<Void> result;
+		
+		private Bridges(WritableReadStream request, ReadableWriteStream response) {
+			this.request = request;
+			this.response = response;
+		}
+	}
+	
+	private static class Host {
+		private int inFlight = 0;
+		private final Deque<Promise<Void>> waiting = new ArrayDeque<>();
+	}
+	
+	private final RpcClient client;
+	private final RpcOptions options;
+	private final int maxInFlightPerHost;
+	private final int maxIdle;
+	
+	private final ConcurrentLinkedQueue<Bridges> idle = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+	private volatile boolean closed = false;
+	
+	/**
+	 * @param maxInFlightPerHost how many calls may run against each host at once
+	 * @param maxIdle how many sets of bridges are allocated up front and kept for reuse
+	 */
+	public RpcCallPool(Vertx vertx, RpcOptions options, int maxInFlightPerHost, int maxIdle) {
+		if (maxInFlightPerHost <= 0) {
+			throw new IllegalArgumentException("Max in-flight calls must be positive: " + maxInFlightPerHost);
+		}
+		
+		this.client = new RpcClient(vertx, options);
+		this.options = options;
+		this.maxInFlightPerHost = maxInFlightPerHost;
+		this.maxIdle = maxIdle;
+		
+		for (int i = 0; i < maxIdle; i++) {
+			idle.add(new Bridges(client.newRequest(), client.newResponse()));
+		}
+		
+		idleCount.set(maxIdle);
+	}
+	
+	/**
+	 * Calls path on the host in the options, completing once the call has started
+	 */
+	public Future<BlockingCall> call(String path) {
+		return call(options.getHost(), options.getPort(), path);
+	}
+	
+	/**
+	 * Calls path on host, completing once there is room for the call and it has started
+	 */
+	public Future<BlockingCall> call(String host, int port, String path) {
+		if (closed) {
+			return Future.failedFuture(closedException());
+		}
+		
+		var slots = hosts.computeIfAbsent(host + ":" + port, key -> new Host());
+		return acquire(slots).compose(v -> {
+			try {
+				return Future.succeededFuture(start(slots, host, port, path));
+			}
+			catch (RuntimeException e) {
+				// the call never started, so its result won't give the slot back
+				release(slots);
+				return Future.failedFuture(e);
+			}
+		});
+	}
+	
+	private static IllegalStateException closedException() {
+		return new IllegalStateException("Call pool closed");
+	}
+	
+	private Future<Void> acquire(Host host) {
+		synchronized (host) {
+			if (closed) {
+				return Future.failedFuture(closedException());
+			}
+			
+			if (host.inFlight < maxInFlightPerHost) {
+				host.inFlight++;
+				return Future.succeededFuture();
+			}
+			
+			var waiter = Promise.<Void>promise();
+			host.waiting.add(waiter);
+			return waiter.future();
+		}
+	}
+	
+	private void release(Host host) {
+		Promise<Void> next;
+		synchronized (host) {
+			// hand the slot straight over if anyone is waiting
+			next = host.waiting.poll();
+			if (next == null) {
+				host.inFlight--;
+			}
+		}
+		
+		if (next != null) {
+			next.complete();
+		}
+	}
+	
+	private BlockingCall start(Host host, String hostName, int port, String path) {
+		if (closed) {
+			throw closedException();
+		}
+		
+		var bridges = idle.poll();
+		if (bridges != null) {
+			idleCount.decrementAndGet();
+		}
+		else {
+			bridges = new Bridges(client.newRequest(), client.newResponse());
+		}
+		
+		var reused = bridges;
+		var call = client.callBlocking(hostName, port, path, bridges.request, bridges.response, () -> recycle(reused));
+		bridges.result = call.result();
+		call.result().onComplete(result -> release(host));
+		return call;
+	}
+	
+	/**
+	 * Takes back the bridges of a closed call, keeping them if the call is over and they can be reset
+	 */
+	private void recycle(Bridges bridges) {
+		try {
+			bridges.response.close();
+			
+			// still in use by Vert.x otherwise
+			if (!bridges.result.succeeded() || !bridges.request.isEnded()) {
+				return;
+			}
+			
+			bridges.request.reset();
+			bridges.response.reset();
+		}
+		catch (IOException e) {
+			return;
+		}
+		
+		if (idleCount.incrementAndGet() <= maxIdle) {
+			idle.add(bridges);
+		}
+		else {
+			idleCount.decrementAndGet();
+		}
+	}
+	
+	@Override
+	public void close() {
+		closed = true;
+		
+		var waiting = new ArrayList<Promise<Void>>();
+		for (var host : hosts.values()) {
+			synchronized (host) {
+				waiting.addAll(host.waiting);
+				host.waiting.clear();
+			}
+		}
+		
+		for (var waiter : waiting) {
+			waiter.fail(closedException());
+		}
+		
+		client.close();
+		idle.clear();
+	}
+}
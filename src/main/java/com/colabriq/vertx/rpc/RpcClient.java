@@ -0,0 +1,225 @@
+package com.colabriq.vertx.rpc;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.colabriq.vertx.stream.ReadableWriteStream;
+import com.colabriq.vertx.stream.WritableReadStream;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.ext.web.codec.BodyCodec;
+
+/**
+ * Makes streaming calls to an {@link RpcServer}, multiplexed over one HTTP/2 connection.
+ *
+ * Each call streams a request body up while the response body streams back, through the same
+ * {@link WebClient} as every other call, so calls beyond the max concurrent streams wait for one to finish.
+ * Blocking calls bridge both bodies to channels for use from threads of their own.
+ */
+public class RpcClient implements AutoCloseable {
+	/**
+	 * A call whose request is written to one channel and whose response is read from another
+	 */
+	public static class BlockingCall implements AutoCloseable {
+		private final WritableReadStream request;
+		private final ReadableWriteStream response;
+		private final Future<Void> result;
+		
+		// how the bridges are let go of on close, by default just closed
+		private final Runnable release;
+		
+		BlockingCall(WritableReadStream request, ReadableWriteStream response, Future<Void> result, Runnable release) {
+			this.request = request;
+			this.response = response;
+			this.result = result;
+			this.release = release;
+		}
+		
+		/**
+		 * Returns the channel the request body is written to, closing it ends the request
+		 */
+		public WritableByteChannel request() {
+			return request;
+		}
+		
+		/**
+		 * Returns the channel the response body is read from. If the call fails, reads throw
+		 * the failure rather than ending.
+		 */
+		public ReadableByteChannel response() {
+			return response;
+		}
+		
+		/**
+		 * Completes once the response has been received, failing if the call did
+		 */
+		public Future<Void> result() {
+			return result;
+		}
+		
+		/**
+		 * Ends the request if it hasn't been, and stops reading the response
+		 */
+		@Override
+		public void close() throws IOException {
+			request.close();
+			
+			if (release != null) {
+				release.run();
+			}
+			else {
+				response.close();
+			}
+		}
+	}
+	
+	/**
+	 * Passes the response body on to a bridge, leaving the bridge to be ended or failed with the call
+	 * rather than ended whenever the body is
+	 */
+	private static class BodyStream implements WriteStream<Buffer> {
+		private final ReadableWriteStream response;
+		
+		private BodyStream(ReadableWriteStream response) {
+			this.response = response;
+		}
+		
+		@Override
+		public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+			response.exceptionHandler(handler);
+			return this;
+		}
+		
+		@Override
+		public WriteStream<Buffer> write(Buffer data) {
+			response.write(data);
+			return this;
+		}
+		
+		@Override
+		public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
+			response.write(data, handler);
+			return this;
+		}
+		
+		@Override
+		public void end() {
+		}
+		
+		@Override
+		public void end(Handler<AsyncResult<Void>> handler) {
+			if (handler != null) {
+				handler.handle(Future.succeededFuture());
+			}
+		}
+		
+		@Override
+		public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+			response.setWriteQueueMaxSize(maxSize);
+			return this;
+		}
+		
+		@Override
+		public boolean writeQueueFull() {
+			return response.writeQueueFull();
+		}
+		
+		@Override
+		public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+			response.drainHandler(handler);
+			return this;
+		}
+	}
+	
+	private final RpcOptions options;
+	private final WebClient client;
+	
+	public RpcClient(Vertx vertx, RpcOptions options) {
+		this.options = options;
+		this.client = WebClient.create(vertx, new WebClientOptions(options.toClientOptions()));
+	}
+	
+	/**
+	 * Calls path, streaming request up and the response into response, which is ended with the call.
+	 * Fails if the server doesn't answer 200.
+	 */
+	public Future<Void> call(String path, ReadStream<Buffer> request, WriteStream<Buffer> response) {
+		return call(options.getHost(), options.getPort(), path, request, response);
+	}
+	
+	/**
+	 * As {@link #call(String, ReadStream, WriteStream)}, to a server other than the one in the options
+	 */
+	public Future<Void> call(String host, int port, String path, ReadStream<Buffer> request, WriteStream<Buffer> response) {
+		var promise = Promise.<Void>promise();
+		
+		client
+			.post(port, host, path)
+			.putHeader("Content-Type", options.getContentType())
+			.as(BodyCodec.pipe(response))
+			.sendStream(request, result -> {
+				if (result.failed()) {
+					promise.fail(result.cause());
+				}
+				else if (result.result().statusCode() != 200) {
+					promise.fail(new IOException("Call to " + path + " failed with status " + result.result().statusCode()));
+				}
+				else {
+					promise.complete();
+				}
+			});
+			
+		return promise.future();
+	}
+	
+	/**
+	 * Calls path, returning channels for a thread of its own to write the request and read the response
+	 */
+	public BlockingCall callBlocking(String path) {
+		return callBlocking(options.getHost(), options.getPort(), path, newRequest(), newResponse(), null);
+	}
+	
+	/**
+	 * Calls with the given bridges, which are let go of by release when the call is closed
+	 */
+	BlockingCall callBlocking(String host, int port, String path, WritableReadStream request, ReadableWriteStream response, Runnable release) {
+		var result = call(host, port, path, request, new BodyStream(response));
+		
+		// a failed call mustn't read as a complete but truncated response
+		result.onComplete(call -> {
+			if (call.succeeded()) {
+				response.end();
+			}
+			else {
+				response.fail(call.cause());
+			}
+		});
+		
+		return new BlockingCall(request, response, result, release);
+	}
+	
+	WritableReadStream newRequest() {
+		return new WritableReadStream().setMaxPendingSize(options.getStreamWindowSize());
+	}
+	
+	ReadableWriteStream newResponse() {
+		var response = new ReadableWriteStream();
+		response.setWriteQueueMaxSize(options.getStreamWindowSize());
+		return response;
+	}
+	
+	@Override
+	public void close() {
+		client.close();
+	}
+}
@@ -0,0 +1,120 @@
+package com.colabriq.vertx.rpc;
+
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
+
+/**
+ * Settings shared by {@link RpcServer} and {@link RpcClient}: where to listen or connect, and the HTTP/2
+ * flow control applied to every call. Calls are multiplexed over one cleartext HTTP/2 (h2c) connection.
+ *
+ * The stream window bounds how much of a call's body may be in flight before its reader catches up,
+ * and the connection window bounds all calls together.
+ */
+public class RpcOptions {
+	public static final String DEFAULT_HOST = "localhost";
+	public static final int DEFAULT_PORT = 8080;
+	public static final long DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+	public static final int DEFAULT_STREAM_WINDOW_SIZE = 256 * 1024;
+	public static final int DEFAULT_CONNECTION_WINDOW_SIZE = 4 * 1024 * 1024;
+	public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+	
+	private String host = DEFAULT_HOST;
+	private int port = DEFAULT_PORT;
+	private long maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+	private int streamWindowSize = DEFAULT_STREAM_WINDOW_SIZE;
+	private int connectionWindowSize = DEFAULT_CONNECTION_WINDOW_SIZE;
+	private String contentType = DEFAULT_CONTENT_TYPE;
+	
+	public String getHost() {
+		return host;
+	}
+	
+	public RpcOptions setHost(String host) {
+		this.host = host;
+		return this;
+	}
+	
+	public int getPort() {
+		return port;
+	}
+	
+	public RpcOptions setPort(int port) {
+		this.port = port;
+		return this;
+	}
+	
+	public long getMaxConcurrentStreams() {
+		return maxConcurrentStreams;
+	}
+	
+	/**
+	 * Sets how many calls may be open on the connection at once
+	 */
+	public RpcOptions setMaxConcurrentStreams(long maxConcurrentStreams) {
+		this.maxConcurrentStreams = maxConcurrentStreams;
+		return this;
+	}
+	
+	public int getStreamWindowSize() {
+		return streamWindowSize;
+	}
+	
+	/**
+	 * Sets the HTTP/2 flow control window of each call
+	 */
+	public RpcOptions setStreamWindowSize(int streamWindowSize) {
+		this.streamWindowSize = streamWindowSize;
+		return this;
+	}
+	
+	public int getConnectionWindowSize() {
+		return connectionWindowSize;
+	}
+	
+	/**
+	 * Sets the HTTP/2 flow control window shared by all calls on the connection
+	 */
+	public RpcOptions setConnectionWindowSize(int connectionWindowSize) {
+		this.connectionWindowSize = connectionWindowSize;
+		return this;
+	}
+	
+	public String getContentType() {
+		return contentType;
+	}
+	
+	public RpcOptions setContentType(String contentType) {
+		this.contentType = contentType;
+		return this;
+	}
+	
+	Http2Settings toSettings() {
+		return new Http2Settings()
+			.setMaxConcurrentStreams(maxConcurrentStreams)
+			.setInitialWindowSize(streamWindowSize);
+	}
+	
+	HttpServerOptions toServerOptions() {
+		return new HttpServerOptions()
+			.setHost(host)
+			.setPort(port)
+			.setInitialSettings(toSettings())
+			.setHttp2ConnectionWindowSize(connectionWindowSize);
+	}
+	
+	HttpClientOptions toClientOptions() {
+		// prior knowledge h2c, so every call shares the one connection from the start
+		return new HttpClientOptions()
+			.setProtocolVersion(HttpVersion.HTTP_2)
+			.setHttp2ClearTextUpgrade(false)
+			.setHttp2MaxPoolSize(1)
+			.setHttp2MultiplexingLimit((int)Math.min(maxConcurrentStreams, Integer.MAX_VALUE))
+			.setInitialSettings(toSettings())
+			.setHttp2ConnectionWindowSize(connectionWindowSize)
+			.setKeepAlive(true)
+			.setDefaultHost(host)
+			.setDefaultPort(port);
+	}
+}
@@ -0,0 +1,193 @@
+package com.colabriq.vertx.rpc;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import com.colabriq.vertx.stream.BlockingExecutor;
+import com.colabriq.vertx.stream.ReadableWriteStream;
+import com.colabriq.vertx.stream.WritableReadStream;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Serves streaming calls posted to registered paths, many at once over each HTTP/2 connection.
+ *
+ * A stream handler gets the request body as a {@link ReadStream} and the response body as a
+ * {@link WriteStream} on the event loop. A blocking handler gets them as channels instead, bridged
+ * by {@link ReadableWriteStream} and {@link WritableReadStream}, and runs on a {@link BlockingExecutor}.
+ * Either way the request is only read as fast as the handler consumes it, so the HTTP/2 windows
+ * push back on the client. A blocking handler is interrupted if the client goes away, and a call
+ * whose handler fails is reset.
+ */
+public class RpcServer implements AutoCloseable {
+	/**
+	 * Handles a call on the event loop
+	 */
+	@FunctionalInterface
+	public interface StreamHandler {
+		void handle(ReadStream<Buffer> request, WriteStream<Buffer> response);
+	}
+	
+	/**
+	 * Handles a call on a thread of its own, the response ending when it returns
+	 */
+	@FunctionalInterface
+	public interface BlockingHandler {
+		void handle(ReadableByteChannel request, WritableByteChannel response) throws Exception;
+	}
+	
+	private final Vertx vertx;
+	private final RpcOptions options;
+	private final BlockingExecutor executor;
+	private final boolean ownsExecutor;
+	
+	private final Map<String, BiConsumer<HttpServerRequest, HttpServerResponse>> handlers = new ConcurrentHashMap<>();
+	private volatile HttpServer server = null;
+	
+	public RpcServer(Vertx vertx, RpcOptions options) {
+		this(vertx, options, new BlockingExecutor(), true);
+	}
+	
+	/**
+	 * Creates a server running blocking handlers on executor, which is left open on close
+	 */
+	public RpcServer(Vertx vertx, RpcOptions options, BlockingExecutor executor) {
+		this(vertx, options, executor, false);
+	}
+	
+	private RpcServer(Vertx vertx, RpcOptions options, BlockingExecutor executor, boolean ownsExecutor) {
+		this.vertx = vertx;
+		this.options = options;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+	
+	/**
+	 * Serves calls to path with handler
+	 */
+	public RpcServer handler(String path, StreamHandler handler) {
+		handlers.put(path, handler::handle);
+		return this;
+	}
+	
+	/**
+	 * Serves calls to path with a blocking handler
+	 */
+	public RpcServer blockingHandler(String path, BlockingHandler handler) {
+		handlers.put(path, (request, response) -> {
+			var requestChannel = new ReadableWriteStream();
+			requestChannel.setWriteQueueMaxSize(options.getStreamWindowSize());
+			
+			// a reset mustn't read as a complete but truncated request
+			request.pipe()
+				.endOnFailure(false)
+				.to(requestChannel, result -> {
+					if (result.failed()) {
+						requestChannel.fail(result.cause());
+					}
+				});
+				
+			var responseChannel = new WritableReadStream();
+			responseChannel.setMaxPendingSize(options.getStreamWindowSize());
+			responseChannel.pipeTo(response);
+			
+			var call = executor.submit(() -> {
+				try {
+					handler.handle(requestChannel, responseChannel);
+					responseChannel.close();
+				}
+				finally {
+					requestChannel.close();
+				}
+				
+				return null;
+			});
+			
+			call.result().onFailure(e -> {
+				if (!response.ended() && !response.closed()) {
+					response.reset();
+				}
+			});
+			
+			// stop the handler if the client goes away, rather than after the response is done
+			response.closeHandler(v -> {
+				if (!response.ended()) {
+					call.cancel();
+				}
+			});
+		});
+		
+		return this;
+	}
+	
+	/**
+	 * Starts listening, completing once the server is bound
+	 */
+	public Future<Void> listen() {
+		var promise = Promise.<Void>promise();
+		
+		vertx.createHttpServer(options.toServerOptions())
+			.requestHandler(this::handle)
+			.listen(result -> {
+				if (result.succeeded()) {
+					this.server = result.result();
+					promise.complete();
+				}
+				else {
+					promise.fail(result.cause());
+				}
+			});
+			
+		return promise.future();
+	}
+	
+	/**
+	 * Returns the port bound, useful when listening on port 0
+	 */
+	public int actualPort() {
+		return server.actualPort();
+	}
+	
+	private void handle(HttpServerRequest request) {
+		var handler = handlers.get(request.path());
+		var response = request.response();
+		
+		if (handler == null) {
+			response.setStatusCode(404).end();
+			return;
+		}
+		
+		response.putHeader("Content-Type", options.getContentType());
+		response.setChunked(true);
+		
+		try {
+			handler.accept(request, response);
+		}
+		catch (RuntimeException e) {
+			response.reset();
+		}
+	}
+	
+	@Override
+	public void close() {
+		var server = this.server;
+		if (server != null) {
+			server.close();
+		}
+		
+		if (ownsExecutor) {
+			executor.close();
+		}
+	}
+}
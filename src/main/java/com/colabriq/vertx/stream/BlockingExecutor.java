@@ -0,0 +1,153 @@
+package com.colabriq.vertx.stream;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+/**
+ * Runs blocking producers and consumers of the stream bridges, such as a writer into a
+ * {@link WritableReadStream} or a reader of a {@link ReadableWriteStream}, off the event loop.
+ *
+ * Each task gets a virtual thread where the JVM has them, otherwise it queues for a bounded
+ * pool of daemon threads. The result completes on the Vert.x context the task was submitted from.
+ * Cancelling a task interrupts its thread, which the bridges answer by closing with
+ * {@link java.nio.channels.ClosedByInterruptException}.
+ */
+public class BlockingExecutor implements AutoCloseable {
+	/**
+	 * A blocking piece of work
+	 */
+	@FunctionalInterface
+	public interface Task<T> {
+		T run() throws Exception;
+	}
+	
+	/**
+	 * A submitted task, which can be cancelled
+	 */
+	public static class Call<T> {
+		private final Context context;
+		private final Promise<T> promise;
+		private volatile java.util.concurrent.Future<?> execution;
+		
+		private Call(Context context) {
+			this.context = context;
+			this.promise = Promise.promise();
+		}
+		
+		/**
+		 * Completes on the submitting context with what the task returned or threw
+		 */
+		public Future<T> result() {
+			return promise.future();
+		}
+		
+		/**
+		 * Interrupts the task if it is running, failing the result with {@link CancellationException}
+		 */
+		public void cancel() {
+			execution.cancel(true);
+			complete(context, () -> promise.tryFail(new CancellationException()));
+		}
+	}
+	
+	private static final int DEFAULT_MAX_THREADS = Runtime.getRuntime().availableProcessors() * 16;
+	
+	private final ExecutorService executor;
+	private final boolean virtual;
+	
+	public BlockingExecutor() {
+		this(DEFAULT_MAX_THREADS);
+	}
+	
+	/**
+	 * @param maxThreads size of the pool used when virtual threads are not available
+	 */
+	public BlockingExecutor(int maxThreads) {
+		var virtualExecutor = newVirtualThreadExecutor();
+		if (virtualExecutor != null) {
+			this.executor = virtualExecutor;
+			this.virtual = true;
+		}
+		else {
+			var count = new AtomicInteger();
+			var pool = new ThreadPoolExecutor(
+				maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				runnable -> {
+					var thread = new Thread(runnable, "blocking-stream-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			);
+			
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+			this.virtual = false;
+		}
+	}
+	
+	/**
+	 * Returns a virtual-thread-per-task executor, or null before Java 21
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Whether tasks run on virtual threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+	
+	/**
+	 * Runs task, completing the returned call's result on the current Vert.x context, if any
+	 */
+	public <T> Call<T> submit(Task<T> task) {
+		var call = new Call<T>(Vertx.currentContext());
+		
+		call.execution = executor.submit(() -> {
+			try {
+				var result = task.run();
+				complete(call.context, () -> call.promise.tryComplete(result));
+			}
+			catch (Throwable e) {
+				complete(call.context, () -> call.promise.tryFail(e));
+			}
+		});
+		
+		return call;
+	}
+	
+	private static void complete(Context context, Runnable completion) {
+		if (context != null) {
+			context.runOnContext(v -> completion.run());
+		}
+		else {
+			completion.run();
+		}
+	}
+	
+	/**
+	 * Interrupts all running tasks and stops accepting new ones
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
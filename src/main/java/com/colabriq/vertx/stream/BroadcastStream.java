@@ -0,0 +1,337 @@
+package com.colabriq.vertx.stream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Fans one {@link ReadStream} out to any number of subscribers, e.g. a client, an audit log and a cache
+ * all reading the same response body.
+ *
+ * Every subscriber is handed a slice of the same buffer, so nothing is copied, and a buffer is only held
+ * in the window until every subscriber has had it. The window also keeps up to its size of recent buffers
+ * for subscribers that join late to replay. Once a subscriber falls a whole window behind, the policy
+ * decides what happens: {@link SlowPolicy#BLOCK} pauses the source until it catches up, {@link SlowPolicy#DROP}
+ * skips it past what it missed and {@link SlowPolicy#DETACH} fails it, so memory stays bounded by the window
+ * however many subscribers there are. Like other Vert.x streams it is meant to be used from one context.
+ */
+public class BroadcastStream {
+	/**
+	 * What happens to a subscriber that falls a whole window behind
+	 */
+	public enum SlowPolicy {
+		/** pause the source until it catches up */
+		BLOCK,
+		/** skip it past the buffers that leave the window */
+		DROP,
+		/** fail it with an {@link IOException} and stop sending it anything */
+		DETACH
+	}
+	
+	/**
+	 * One reader of the broadcast, reading from wherever it joined
+	 */
+	public class Subscriber implements ReadStream<Buffer> {
+		private Handler<Buffer> dataHandler;
+		private Handler<Void> endHandler;
+		private Handler<Throwable> exceptionHandler;
+		
+		// the sequence number of the next buffer it reads
+		private long position;
+		private long demand = Long.MAX_VALUE;
+		private long droppedBytes = 0;
+		private boolean emitting = false, endEmitted = false, failed = false, detached = false;
+		
+		private Subscriber(long position) {
+			this.position = position;
+		}
+		
+		/**
+		 * Returns how many bytes it has missed by being too slow, under {@link SlowPolicy#DROP}
+		 */
+		public long droppedBytes() {
+			return droppedBytes;
+		}
+		
+		/**
+		 * Stops reading, so the broadcast no longer waits for it
+		 */
+		public void unsubscribe() {
+			if (!detached) {
+				detached = true;
+				subscribers.remove(this);
+				trim();
+			}
+		}
+		
+		@Override
+		public Subscriber handler(Handler<Buffer> handler) {
+			this.dataHandler = handler;
+			emit();
+			trim();
+			return this;
+		}
+		
+		@Override
+		public Subscriber endHandler(Handler<Void> handler) {
+			this.endHandler = handler;
+			return this;
+		}
+		
+		@Override
+		public Subscriber exceptionHandler(Handler<Throwable> handler) {
+			this.exceptionHandler = handler;
+			return this;
+		}
+		
+		@Override
+		public Subscriber pause() {
+			this.demand = 0;
+			return this;
+		}
+		
+		@Override
+		public Subscriber resume() {
+			return fetch(Long.MAX_VALUE);
+		}
+		
+		@Override
+		public Subscriber fetch(long amount) {
+			if (amount < 0) {
+				throw new IllegalArgumentException("Negative fetch: " + amount);
+			}
+			
+			this.demand += amount;
+			if (this.demand < 0) {
+				this.demand = Long.MAX_VALUE;
+			}
+			
+			emit();
+			trim();
+			return this;
+		}
+		
+		/**
+		 * Hands over buffers from its position while there is demand, then the end or failure.
+		 * Trimming the window is left to the caller, so one subscriber can't drop another's
+		 * buffers before it has had its turn.
+		 */
+		private void emit() {
+			if (emitting || detached || dataHandler == null) {
+				return;
+			}
+			
+			emitting = true;
+			try {
+				while (demand > 0 && position < nextSeq() && !detached) {
+					var data = get(position++);
+					if (demand != Long.MAX_VALUE) {
+						demand--;
+					}
+					
+					// a slice of its own, so the reader index is its own too
+					dataHandler.handle(data.slice());
+				}
+				
+				if (failure != null && !failed) {
+					failed = true;
+					if (exceptionHandler != null) {
+						exceptionHandler.handle(failure);
+					}
+				}
+				else if (ended && !endEmitted && position == nextSeq()) {
+					endEmitted = true;
+					if (endHandler != null) {
+						endHandler.handle(null);
+					}
+				}
+			}
+			finally {
+				emitting = false;
+			}
+		}
+		
+		private void detach() {
+			detached = true;
+			if (exceptionHandler != null) {
+				exceptionHandler.handle(new IOException("Subscriber fell more than " + windowSize + " bytes behind"));
+			}
+		}
+	}
+	
+	private final ReadStream<Buffer> source;
+	private final long windowSize;
+	private final SlowPolicy policy;
+	private final List<Subscriber> subscribers = new ArrayList<>();
+	
+	// a ring of the buffers in the window, the oldest at head with sequence number baseSeq
+	private Buffer[] window = new Buffer[16];
+	private int head = 0, size = 0;
+	private long baseSeq = 0;
+	private long windowBytes = 0;
+	
+	private boolean started = false, sourcePaused = false, ended = false, emittingAll = false;
+	private Throwable failure = null;
+	
+	/**
+	 * @param windowSize how many bytes may be held for subscribers that are behind or yet to join
+	 */
+	public BroadcastStream(ReadStream<Buffer> source, long windowSize, SlowPolicy policy) {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+		}
+		
+		this.source = source;
+		this.windowSize = windowSize;
+		this.policy = policy;
+	}
+	
+	/**
+	 * Adds a subscriber, which replays what is still in the window before carrying on with the rest
+	 */
+	public Subscriber subscribe() {
+		return subscribe(true);
+	}
+	
+	/**
+	 * Adds a subscriber, replaying the window first or else only reading what arrives from now on
+	 */
+	public Subscriber subscribe(boolean replay) {
+		var subscriber = new Subscriber(replay ? baseSeq : nextSeq());
+		subscribers.add(subscriber);
+		return subscriber;
+	}
+	
+	/**
+	 * Starts reading the source, once the first subscribers are in place
+	 */
+	public BroadcastStream start() {
+		if (!started) {
+			started = true;
+			source.handler(this::add);
+			source.endHandler(v -> {
+				ended = true;
+				emitAll();
+			});
+			source.exceptionHandler(e -> {
+				failure = e;
+				emitAll();
+			});
+		}
+		
+		return this;
+	}
+	
+	private long nextSeq() {
+		return baseSeq + size;
+	}
+	
+	private Buffer get(long seq) {
+		return window[(int)((head + (seq - baseSeq)) % window.length)];
+	}
+	
+	private void add(Buffer data) {
+		if (size == window.length) {
+			var grown = new Buffer[window.length * 2];
+			for (int i = 0; i < size; i++) {
+				grown[i] = window[(head + i) % window.length];
+			}
+			
+			window = grown;
+			head = 0;
+		}
+		
+		window[(head + size) % window.length] = data;
+		size++;
+		windowBytes += data.length();
+		
+		emitAll();
+	}
+	
+	private void emitAll() {
+		emittingAll = true;
+		try {
+			for (var subscriber : List.copyOf(subscribers)) {
+				subscriber.emit();
+			}
+		}
+		finally {
+			emittingAll = false;
+		}
+		
+		trim();
+	}
+	
+	private Buffer removeHead() {
+		var data = window[head];
+		window[head] = null;
+		head = (head + 1) % window.length;
+		size--;
+		baseSeq++;
+		windowBytes -= data.length();
+		return data;
+	}
+	
+	/**
+	 * Drops the oldest buffers while the window is over size, applying the policy to subscribers
+	 * still waiting for them, then pauses or resumes the source to match
+	 */
+	private void trim() {
+		if (emittingAll) {
+			// every subscriber gets its turn first
+			return;
+		}
+		
+		while (windowBytes > windowSize) {
+			var waiting = false;
+			for (var subscriber : subscribers) {
+				if (subscriber.position == baseSeq) {
+					waiting = true;
+					break;
+				}
+			}
+			
+			if (waiting && policy == SlowPolicy.BLOCK) {
+				break;
+			}
+			
+			var data = removeHead();
+			if (waiting) {
+				var detached = new ArrayList<Subscriber>();
+				for (var it = subscribers.iterator(); it.hasNext(); ) {
+					var subscriber = it.next();
+					if (subscriber.position == baseSeq - 1) {
+						if (policy == SlowPolicy.DROP) {
+							subscriber.position++;
+							subscriber.droppedBytes += data.length();
+						}
+						else {
+							it.remove();
+							detached.add(subscriber);
+						}
+					}
+				}
+				
+				detached.forEach(Subscriber::detach);
+			}
+		}
+		
+		if (!started || ended || failure != null) {
+			return;
+		}
+		
+		var full = windowBytes > windowSize;
+		if (full && !sourcePaused) {
+			sourcePaused = true;
+			source.pause();
+		}
+		else if (!full && sourcePaused) {
+			sourcePaused = false;
+			source.resume();
+		}
+	}
+}
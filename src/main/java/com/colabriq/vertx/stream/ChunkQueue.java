@@ -0,0 +1,150 @@
+package com.colabriq.vertx.stream;
+
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Hands chunks from the thread writing a stream to the single thread reading it.
+ * The writer never blocks, the reader blocks in {@link #take(Runnable)} until a chunk arrives
+ * or the queue is closed.
+ */
+interface ChunkQueue<T> {
+	/**
+	 * Appends a chunk, called by the writer
+	 */
+	void add(T chunk);
+	
+	/**
+	 * Signals that no more chunks will be added, waking the reader
+	 */
+	void close();
+	
+	/**
+	 * Whether there are no chunks queued, safe to call from either side
+	 */
+	boolean isEmpty();
+	
+	/**
+	 * Returns the head chunk without removing it or null if there is none, called by the reader
+	 */
+	T peek();
+	
+	/**
+	 * Removes the head chunk, called by the reader
+	 */
+	void remove();
+	
+	/**
+	 * Returns the head chunk, blocking until there is one.
+	 * Returns null once the queue is closed and empty.
+	 * @param beforeWait run every time before the reader blocks
+	 * @throws InterruptedException if the reader is interrupted while blocked
+	 */
+	T take(Runnable beforeWait) throws InterruptedException;
+	
+	/**
+	 * Makes a closed queue usable again once it has been emptied, called with neither side using it
+	 */
+	void reopen();
+	
+	/**
+	 * Holds off the writer while the reader works through several chunks, where the queue uses a lock
+	 */
+	default void lock() { }
+	
+	/**
+	 * Releases {@link #lock()}
+	 */
+	default void unlock() { }
+	
+	/**
+	 * Copies as much of the head buffer as fits into dst, blocking until there is one,
+	 * and releases it once it has been fully consumed.
+	 * Returns the number of bytes copied, or -1 once the queue is closed and empty.
+	 */
+	static int read(ChunkQueue<ByteBuf> queue, ByteBuffer dst, Runnable beforeWait) throws InterruptedException {
+		var nxt = queue.take(beforeWait);
+		if (nxt == null) {
+			return -1;
+		}
+		
+		var read = transfer(nxt, dst);
+		if (!nxt.isReadable()) {
+			queue.remove();
+			nxt.release();
+		}
+		
+		return read;
+	}
+	
+	/**
+	 * Scattering version of {@link #read(ChunkQueue, ByteBuffer, Runnable)}: blocks for the first buffer,
+	 * then copies from as many queued buffers as are there into dsts[offset] to dsts[offset + length - 1].
+	 */
+	static long read(ChunkQueue<ByteBuf> queue, ByteBuffer [] dsts, int offset, int length, Runnable beforeWait) throws InterruptedException {
+		var nxt = queue.take(beforeWait);
+		if (nxt == null) {
+			return -1;
+		}
+		
+		long read = 0;
+		var i = offset;
+		
+		queue.lock();
+		try {
+			while (nxt != null) {
+				while (i < offset + length && !dsts[i].hasRemaining()) {
+					i++;
+				}
+				
+				// an empty chunk marks something the owner of the queue has to handle
+				if (i == offset + length || !nxt.isReadable()) {
+					break;
+				}
+				
+				read += transfer(nxt, dsts[i]);
+				if (!nxt.isReadable()) {
+					queue.remove();
+					nxt.release();
+					nxt = queue.peek();
+				}
+			}
+		}
+		finally {
+			queue.unlock();
+		}
+		
+		return read;
+	}
+	
+	/**
+	 * Copies as much of src as fits into dst
+	 */
+	private static int transfer(ByteBuf src, ByteBuffer dst) {
+		// copy straight out of the queued buffer, limiting dst to what it holds
+		var count = Math.min(src.readableBytes(), dst.remaining());
+		var limit = dst.limit();
+		dst.limit(dst.position() + count);
+		src.readBytes(dst);
+		dst.limit(limit);
+		return count;
+	}
+	
+	/**
+	 * Removes and releases every queued buffer, called by the reader.
+	 * Returns the number of unread bytes discarded.
+	 */
+	static int clear(ChunkQueue<ByteBuf> queue) {
+		var discarded = 0;
+		
+		ByteBuf nxt;
+		while ((nxt = queue.peek()) != null) {
+			queue.remove();
+			discarded += nxt.readableBytes();
+			nxt.release();
+		}
+		
+		return discarded;
+	}
+}
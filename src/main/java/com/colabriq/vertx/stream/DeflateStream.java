@@ -0,0 +1,115 @@
+package com.colabriq.vertx.stream;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * A {@link TransformStream} compressing what is written to it, in zlib or gzip format, as it goes.
+ *
+ * Output is gathered in a reused buffer and copied out as it fills, so nothing holds the whole body.
+ * With sync flush, everything written so far is pushed out after each write, at some cost in ratio,
+ * for interactive streams where the reader shouldn't wait for the next block.
+ */
+public class DeflateStream extends TransformStream {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private static final byte [] GZIP_HEADER = {
+		0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff
+	};
+	
+	private final StreamAllocator allocator = StreamAllocator.getDefault();
+	private final Deflater deflater;
+	private final byte [] output = new byte[BUFFER_SIZE];
+	
+	// gzip only, crc is null otherwise
+	private final CRC32 crc;
+	private boolean headerWritten = false;
+	
+	private boolean syncFlush = false;
+	
+	/**
+	 * Creates a zlib stream at the default compression level
+	 */
+	public DeflateStream() {
+		this(Deflater.DEFAULT_COMPRESSION, false);
+	}
+	
+	/**
+	 * Creates a stream at level, writing gzip rather than zlib if gzip is set
+	 */
+	public DeflateStream(int level, boolean gzip) {
+		this.deflater = new Deflater(level, gzip);
+		this.crc = gzip ? new CRC32() : null;
+	}
+	
+	/**
+	 * Sets whether everything written so far is pushed out after each write
+	 */
+	public DeflateStream setSyncFlush(boolean syncFlush) {
+		this.syncFlush = syncFlush;
+		return this;
+	}
+	
+	@Override
+	protected void transform(Buffer data) {
+		if (crc != null && !headerWritten) {
+			headerWritten = true;
+			push(Buffer.buffer(GZIP_HEADER));
+		}
+		
+		var input = data.getByteBuf().nioBuffer();
+		if (crc != null) {
+			crc.update(input.duplicate());
+		}
+		
+		deflater.setInput(input);
+		while (!deflater.needsInput()) {
+			deflate(Deflater.NO_FLUSH);
+		}
+		
+		if (syncFlush) {
+			// a full output buffer may mean there is more to flush
+			while (deflate(Deflater.SYNC_FLUSH) == output.length);
+		}
+	}
+	
+	@Override
+	protected void finish() {
+		if (crc != null && !headerWritten) {
+			headerWritten = true;
+			push(Buffer.buffer(GZIP_HEADER));
+		}
+		
+		deflater.finish();
+		while (!deflater.finished()) {
+			deflate(Deflater.NO_FLUSH);
+		}
+		
+		if (crc != null) {
+			push(Buffer.buffer(8)
+				.appendIntLE((int)crc.getValue())
+				.appendIntLE((int)deflater.getBytesRead()));
+		}
+		
+		deflater.end();
+	}
+	
+	@Override
+	protected void abort() {
+		deflater.end();
+	}
+	
+	/**
+	 * Runs the deflater into the output buffer once, pushing a copy of what it produced
+	 */
+	private int deflate(int flush) {
+		var count = deflater.deflate(output, 0, output.length, flush);
+		if (count > 0) {
+			push(allocator.copyOf(output, 0, count));
+		}
+		
+		return count;
+	}
+}
@@ -0,0 +1,157 @@
+package com.colabriq.vertx.stream;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Passes buffers through unchanged while updating a checksum or {@link MessageDigest} over them,
+ * so a body's integrity is checked as it streams rather than in a second pass.
+ *
+ * The digest is completed at the end, before the end is passed on. If an expected digest was given,
+ * e.g. from a header, or the stream carries its own as a trailer of known length, a mismatch fails
+ * the stream instead of ending it. Checksums are given as their 4 byte big endian value.
+ */
+public class DigestStream extends TransformStream {
+	private final Checksum checksum;
+	private final MessageDigest digest;
+	private final Promise<Buffer> result = Promise.promise();
+	
+	private Buffer expected = null;
+	
+	// with a trailer, the last trailerLength bytes seen are held back in case they are it
+	private int trailerLength = 0;
+	private Buffer tail = Buffer.buffer();
+	
+	/**
+	 * Returns a stream checksumming with CRC32C
+	 */
+	public static DigestStream crc32c() {
+		return new DigestStream(new CRC32C());
+	}
+	
+	/**
+	 * Returns a stream digesting with the named {@link MessageDigest} algorithm, e.g. SHA-256
+	 */
+	public static DigestStream of(String algorithm) throws NoSuchAlgorithmException {
+		return new DigestStream(MessageDigest.getInstance(algorithm));
+	}
+	
+	public DigestStream(Checksum checksum) {
+		this.checksum = checksum;
+		this.digest = null;
+	}
+	
+	public DigestStream(MessageDigest digest) {
+		this.checksum = null;
+		this.digest = digest;
+	}
+	
+	/**
+	 * Fails the stream at the end unless its digest is expected
+	 */
+	public DigestStream expect(Buffer expected) {
+		this.expected = expected;
+		return this;
+	}
+	
+	/**
+	 * Treats the last length bytes of the stream as the digest to expect, passing on only what comes before
+	 */
+	public DigestStream expectTrailer(int length) {
+		if (length <= 0) {
+			throw new IllegalArgumentException("Trailer length must be positive: " + length);
+		}
+		
+		this.trailerLength = length;
+		return this;
+	}
+	
+	/**
+	 * Completes with the digest at the end, failing if it isn't what was expected
+	 */
+	public Future<Buffer> digest() {
+		return result.future();
+	}
+	
+	@Override
+	protected void transform(Buffer data) {
+		if (trailerLength == 0) {
+			pass(data);
+			return;
+		}
+		
+		// pass on everything but the last trailerLength bytes, copying only those
+		var release = tail.length() + data.length() - trailerLength;
+		if (release <= 0) {
+			tail.appendBuffer(data);
+		}
+		else if (release <= tail.length()) {
+			pass(tail.slice(0, release));
+			tail = tail.getBuffer(release, tail.length()).appendBuffer(data);
+		}
+		else {
+			var fromData = release - tail.length();
+			pass(tail);
+			pass(data.slice(0, fromData));
+			tail = data.getBuffer(fromData, data.length());
+		}
+	}
+	
+	private void pass(Buffer data) {
+		if (data.length() == 0) {
+			return;
+		}
+		
+		// the reader index might not be 0, and for a slice it's indexed into the parent
+		var bb = data.getByteBuf();
+		var input = bb.nioBuffer(bb.writerIndex() - data.length(), data.length());
+		if (checksum != null) {
+			checksum.update(input);
+		}
+		else {
+			digest.update(input);
+		}
+		
+		push(data);
+	}
+	
+	@Override
+	protected void finish() throws IOException {
+		var actual = checksum != null ? Buffer.buffer(4).appendUnsignedInt(checksum.getValue()) : Buffer.buffer(digest.digest());
+		
+		if (trailerLength > 0) {
+			if (tail.length() < trailerLength) {
+				fail(new IOException("Stream ended before its " + trailerLength + " byte trailer"));
+			}
+			
+			expected = tail;
+		}
+		
+		if (expected != null && !expected.equals(actual)) {
+			fail(new IOException("Digest mismatch, expected " + toHex(expected) + " but got " + toHex(actual)));
+		}
+		
+		result.complete(actual);
+	}
+	
+	private void fail(IOException e) throws IOException {
+		result.fail(e);
+		throw e;
+	}
+	
+	private static String toHex(Buffer buffer) {
+		var hex = new StringBuilder(buffer.length() * 2);
+		for (int i = 0; i < buffer.length(); i++) {
+			hex.append(String.format("%02x", buffer.getUnsignedByte(i)));
+		}
+		
+		return hex.toString();
+	}
+}
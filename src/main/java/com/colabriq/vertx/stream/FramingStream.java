@@ -0,0 +1,168 @@
+package com.colabriq.vertx.stream;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * A {@link TransformStream} splitting what is written to it into records, emitting one {@link Buffer} per record,
+ * either delimited by newlines or prefixed with their length as a 4 byte big-endian int.
+ *
+ * Empty records, such as blank lines, are emitted like any other.
+ * Records are slices of the written buffers, never copies. A record split across writes is gathered as a
+ * composite of the pieces until its end arrives. A record longer than the max record size fails the stream.
+ * Records are emitted as there is demand for them, so lines can be handled on the event loop
+ * with no reader thread.
+ */
+public class FramingStream extends TransformStream {
+	private static final byte NEWLINE = '\n', RETURN = '\r';
+	
+	private final boolean delimited;
+	private final int maxRecordSize;
+	
+	// the start of a record that didn't end in the buffer it started in, null if there is none
+	private CompositeByteBuf carry = null;
+	
+	// how much of carry is known to hold no newline
+	private int carryScanned = 0;
+	
+	private FramingStream(boolean delimited, int maxRecordSize) {
+		if (maxRecordSize <= 0) {
+			throw new IllegalArgumentException("Max record size must be positive: " + maxRecordSize);
+		}
+		
+		this.delimited = delimited;
+		this.maxRecordSize = maxRecordSize;
+	}
+	
+	/**
+	 * Splits into lines ending in \n or \r\n, which are not included in the records.
+	 * A last line with no newline is emitted at the end.
+	 */
+	public static FramingStream lines(int maxRecordSize) {
+		return new FramingStream(true, maxRecordSize);
+	}
+	
+	/**
+	 * Splits into records each preceded by its length, which is not included in the records
+	 */
+	public static FramingStream lengthPrefixed(int maxRecordSize) {
+		return new FramingStream(false, maxRecordSize);
+	}
+	
+	@Override
+	protected void transform(Buffer data) throws IOException {
+		var buf = data.getByteBuf();
+		
+		ByteBuf source = buf;
+		if (carry != null) {
+			carry.addComponent(true, buf.retainedSlice());
+			source = carry;
+		}
+		
+		ByteBuf record;
+		while ((record = next(source)) != null) {
+			push(Buffer.buffer(record));
+			
+			// once the record that was carried is out, the rest is all in buf
+			if (source == carry) {
+				buf.readerIndex(buf.writerIndex() - carry.readableBytes());
+				carry.release();
+				carry = null;
+				source = buf;
+			}
+		}
+		
+		if (source == buf && buf.isReadable()) {
+			carry = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+			carry.addComponent(true, buf.retainedSlice());
+			carryScanned = carry.readableBytes();
+		}
+	}
+	
+	/**
+	 * Returns the next whole record in source, or null if it hasn't all arrived
+	 */
+	private ByteBuf next(ByteBuf source) throws IOException {
+		var start = source.readerIndex();
+		
+		if (delimited) {
+			var from = start + (source == carry ? carryScanned : 0);
+			var newline = source.indexOf(from, source.writerIndex(), NEWLINE);
+			if (newline < 0) {
+				carryScanned = source.readableBytes();
+				checkSize(source.readableBytes());
+				return null;
+			}
+			
+			carryScanned = 0;
+			
+			var length = newline - start;
+			checkSize(length);
+			
+			var record = source.readRetainedSlice(length);
+			source.skipBytes(1);
+			return stripReturn(record);
+		}
+		else {
+			if (source.readableBytes() < 4) {
+				return null;
+			}
+			
+			var length = source.getInt(start);
+			if (length < 0) {
+				throw new IOException("Negative record length: " + length);
+			}
+			
+			checkSize(length);
+			if (source.readableBytes() - 4 < length) {
+				return null;
+			}
+			
+			source.skipBytes(4);
+			return source.readRetainedSlice(length);
+		}
+	}
+	
+	private static ByteBuf stripReturn(ByteBuf record) {
+		var length = record.readableBytes();
+		if (length > 0 && record.getByte(record.readerIndex() + length - 1) == RETURN) {
+			return record.slice(record.readerIndex(), length - 1);
+		}
+		
+		return record;
+	}
+	
+	private void checkSize(int length) throws IOException {
+		if (length > maxRecordSize) {
+			throw new IOException("Record longer than " + maxRecordSize + " bytes");
+		}
+	}
+	
+	@Override
+	protected void abort() {
+		if (carry != null) {
+			carry.release();
+			carry = null;
+		}
+	}
+	
+	@Override
+	protected void finish() throws IOException {
+		var carry = this.carry;
+		this.carry = null;
+		
+		if (carry != null) {
+			if (!delimited) {
+				carry.release();
+				throw new EOFException("Stream ended part way through a record");
+			}
+			
+			push(Buffer.buffer(stripReturn(carry)));
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.colabriq.vertx.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * An in-process alternative to {@link Pipe} with the same sink/source pair of channels,
+ * but no file descriptors and no capacity limit, so writing to the sink never blocks.
+ * The source blocks until bytes are available.
+ * 
+ * Bytes written from a {@link ByteBuffer} are copied into buffers from a {@link StreamAllocator},
+ * released once read. Flow control is left to the writer, e.g. {@link InputWriteStream}.
+ * The sink expects one writer at a time, as it gets from a Vert.x context, and the source one reader.
+ */
+public class HeapPipe {
+	private static final int RING_SIZE = 16;
+	
+	private final ChunkQueue<ByteBuf> queue = new SpscChunkQueue<>(RING_SIZE);
+	private final StreamAllocator allocator;
+	
+	private final Sink sink = new Sink();
+	private final Source source = new Source();
+	
+	private volatile boolean sinkOpen = true, sourceOpen = true;
+	
+	public HeapPipe() {
+		this(StreamAllocator.getDefault());
+	}
+	
+	public HeapPipe(StreamAllocator allocator) {
+		this.allocator = allocator;
+	}
+	
+	/**
+	 * Returns the channel written to
+	 */
+	public Sink sink() {
+		return sink;
+	}
+	
+	/**
+	 * Returns the channel read from
+	 */
+	public Source source() {
+		return source;
+	}
+	
+	public class Sink implements GatheringByteChannel {
+		/**
+		 * Queues the readable bytes of buf without copying them, retaining a slice until it is read
+		 */
+		public int write(ByteBuf buf) throws IOException {
+			checkWritable();
+			
+			var len = buf.readableBytes();
+			if (len > 0) {
+				queue.add(buf.retainedSlice());
+				buf.skipBytes(len);
+			}
+			
+			return len;
+		}
+		
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			checkWritable();
+			
+			// the caller may reuse src as soon as we return, so copy it
+			var len = src.remaining();
+			if (len > 0) {
+				queue.add(allocator.buffer(len).writeBytes(src));
+			}
+			
+			return len;
+		}
+		
+		@Override
+		public long write(ByteBuffer [] srcs, int offset, int length) throws IOException {
+			checkWritable();
+			
+			var len = 0;
+			for (int i = offset; i < offset + length; i++) {
+				len += srcs[i].remaining();
+			}
+			
+			if (len > 0) {
+				var copy = allocator.buffer(len);
+				for (int i = offset; i < offset + length; i++) {
+					copy.writeBytes(srcs[i]);
+				}
+				
+				queue.add(copy);
+			}
+			
+			return len;
+		}
+		
+		@Override
+		public long write(ByteBuffer [] srcs) throws IOException {
+			return write(srcs, 0, srcs.length);
+		}
+		
+		private void checkWritable() throws IOException {
+			if (!sinkOpen) {
+				throw new ClosedChannelException();
+			}
+			
+			if (!sourceOpen) {
+				throw new IOException("Broken pipe");
+			}
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return sinkOpen;
+		}
+		
+		@Override
+		public void close() {
+			sinkOpen = false;
+			queue.close();
+		}
+	}
+	
+	public class Source implements ReadableByteChannel {
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (!sourceOpen) {
+				throw new ClosedChannelException();
+			}
+			
+			if (dst.remaining() == 0) {
+				return 0;
+			}
+			
+			try {
+				return ChunkQueue.read(queue, dst, () -> { });
+			}
+			catch (InterruptedException e) {
+				// as for any interruptible channel
+				close();
+				Thread.currentThread().interrupt();
+				throw new ClosedByInterruptException();
+			}
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return sourceOpen;
+		}
+		
+		@Override
+		public void close() {
+			sourceOpen = false;
+			ChunkQueue.clear(queue);
+		}
+	}
+}
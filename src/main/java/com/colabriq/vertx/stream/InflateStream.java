@@ -0,0 +1,277 @@
+package com.colabriq.vertx.stream;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * A {@link TransformStream} decompressing zlib or gzip as it is written, the reverse of {@link DeflateStream}.
+ *
+ * Gzip headers and trailers may be split across writes and are gathered until complete;
+ * the trailer's CRC and length are checked, and concatenated gzip members are read one after another.
+ * Ending the stream before the compressed data is complete, or with no gzip member at all, fails it with
+ * {@link EOFException}.
+ *
+ * A single small write can inflate to far more than anything downstream would queue, so the output is
+ * limited: once past 1MB, a stream inflating to more than {@link #setMaxRatio(int)} times its compressed
+ * size fails with {@link ZipException}, as does one inflating to more than {@link #setMaxSize(long)} in all.
+ * Both are checked as each block is inflated, before it is pushed.
+ */
+public class InflateStream extends TransformStream {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int DEFAULT_MAX_RATIO = 100;
+	
+	// below this much output the ratio isn't checked, as short runs can compress far better than a whole stream
+	private static final long RATIO_THRESHOLD = 1024 * 1024;
+	
+	private static final int DEFLATED = 8;
+	private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+	
+	private enum State { HEADER, BODY, TRAILER, DONE }
+	
+	private final StreamAllocator allocator = StreamAllocator.getDefault();
+	private final Inflater inflater;
+	private final byte [] output = new byte[BUFFER_SIZE];
+	
+	// gzip only, crc is null otherwise
+	private final CRC32 crc;
+	
+	// header or trailer bytes gathered so far
+	private final ByteBuf carry = Unpooled.buffer();
+	
+	private State state;
+	
+	// limits, 0 for none
+	private int maxRatio = DEFAULT_MAX_RATIO;
+	private long maxSize = 0;
+	
+	// bytes in and out of the gzip members already finished, the inflater counts the current one
+	private long finishedIn = 0, finishedOut = 0;
+	private boolean anyMember = false;
+	
+	/**
+	 * Creates a zlib stream
+	 */
+	public InflateStream() {
+		this(false);
+	}
+	
+	/**
+	 * Creates a stream reading gzip rather than zlib if gzip is set
+	 */
+	public InflateStream(boolean gzip) {
+		this.inflater = new Inflater(gzip);
+		this.crc = gzip ? new CRC32() : null;
+		this.state = gzip ? State.HEADER : State.BODY;
+	}
+	
+	/**
+	 * Sets how many times its compressed size the output may be, 0 for no limit, {@value #DEFAULT_MAX_RATIO} by default
+	 */
+	public InflateStream setMaxRatio(int maxRatio) {
+		this.maxRatio = maxRatio;
+		return this;
+	}
+	
+	/**
+	 * Sets how many bytes the stream may inflate to in all, 0 for no limit, the default
+	 */
+	public InflateStream setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+	
+	@Override
+	protected void transform(Buffer data) throws Exception {
+		var input = data.getByteBuf().nioBuffer();
+		
+		while (input.hasRemaining()) {
+			switch (state) {
+				case HEADER:
+					carry.writeBytes(input);
+					var length = headerLength(carry);
+					if (length < 0) {
+						return;
+					}
+					
+					// inflate whatever came after the header
+					carry.skipBytes(length);
+					input = ByteBuffer.allocate(carry.readableBytes());
+					carry.readBytes(input);
+					input.flip();
+					carry.clear();
+					
+					crc.reset();
+					inflater.reset();
+					state = State.BODY;
+					break;
+					
+				case BODY:
+					inflate(input);
+					break;
+					
+				case TRAILER:
+					var take = Math.min(input.remaining(), 8 - carry.readableBytes());
+					var slice = input.duplicate();
+					slice.limit(slice.position() + take);
+					carry.writeBytes(slice);
+					input.position(input.position() + take);
+					
+					if (carry.readableBytes() == 8) {
+						checkTrailer();
+						state = State.HEADER;
+					}
+					break;
+					
+				case DONE:
+					// zlib has no trailer, anything after the stream is ignored
+					return;
+			}
+		}
+	}
+	
+	private void inflate(ByteBuffer input) throws DataFormatException, ZipException {
+		inflater.setInput(input);
+		
+		while (true) {
+			var count = inflater.inflate(output, 0, output.length);
+			if (count > 0) {
+				checkLimits();
+				if (crc != null) {
+					crc.update(output, 0, count);
+				}
+				
+				push(allocator.copyOf(output, 0, count));
+			}
+			
+			if (inflater.finished()) {
+				finishedIn += inflater.getBytesRead();
+				finishedOut += inflater.getBytesWritten();
+				state = crc != null ? State.TRAILER : State.DONE;
+				return;
+			}
+			
+			if (inflater.needsDictionary()) {
+				throw new ZipException("Preset dictionaries are not supported");
+			}
+			
+			if (count == 0 && inflater.needsInput()) {
+				return;
+			}
+		}
+	}
+	
+	private void checkLimits() throws ZipException {
+		var in = finishedIn + inflater.getBytesRead();
+		var out = finishedOut + inflater.getBytesWritten();
+		
+		if (maxSize > 0 && out > maxSize) {
+			throw new ZipException("Inflated size exceeds " + maxSize + " bytes");
+		}
+		
+		if (maxRatio > 0 && out > RATIO_THRESHOLD && out / Math.max(in, 1) > maxRatio) {
+			throw new ZipException("Inflated size exceeds " + maxRatio + " times the compressed size");
+		}
+	}
+	
+	private void checkTrailer() throws ZipException {
+		var expectedCrc = carry.readUnsignedIntLE();
+		var expectedSize = carry.readUnsignedIntLE();
+		carry.clear();
+		
+		if (expectedCrc != crc.getValue()) {
+			throw new ZipException("Corrupt GZIP trailer: CRC mismatch");
+		}
+		
+		if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+			throw new ZipException("Corrupt GZIP trailer: size mismatch");
+		}
+		
+		anyMember = true;
+	}
+	
+	/**
+	 * Returns the length of the gzip header at the start of buf, or -1 if it isn't all there yet
+	 */
+	private static int headerLength(ByteBuf buf) throws ZipException {
+		var end = buf.writerIndex();
+		if (end < 10) {
+			return -1;
+		}
+		
+		if (buf.getUnsignedShortLE(0) != 0x8b1f || buf.getByte(2) != DEFLATED) {
+			throw new ZipException("Not in GZIP format");
+		}
+		
+		var flags = buf.getByte(3);
+		var position = 10;
+		
+		if ((flags & FEXTRA) != 0) {
+			if (position + 2 > end) {
+				return -1;
+			}
+			
+			position += 2 + buf.getUnsignedShortLE(position);
+		}
+		
+		if ((flags & FNAME) != 0) {
+			position = terminated(buf, position, end);
+		}
+		
+		if ((flags & FCOMMENT) != 0 && position >= 0) {
+			position = terminated(buf, position, end);
+		}
+		
+		if ((flags & FHCRC) != 0 && position >= 0) {
+			position += 2;
+		}
+		
+		return position >= 0 && position <= end ? position : -1;
+	}
+	
+	/**
+	 * Returns the position after the zero terminating the string at position, or -1 if it isn't there yet
+	 */
+	private static int terminated(ByteBuf buf, int position, int end) {
+		if (position >= end) {
+			return -1;
+		}
+		
+		var zero = buf.indexOf(position, end, (byte)0);
+		return zero >= 0 ? zero + 1 : -1;
+	}
+	
+	@Override
+	protected void abort() {
+		inflater.end();
+		
+		// finish may have released it before failing
+		if (carry.refCnt() > 0) {
+			carry.release();
+		}
+	}
+	
+	@Override
+	protected void finish() throws Exception {
+		inflater.end();
+		
+		// a gzip stream can end between members, but not part way through one
+		var complete = crc != null ? state == State.HEADER && carry.readableBytes() == 0 : state == State.DONE;
+		carry.release();
+		
+		if (!complete) {
+			throw new EOFException("Unexpected end of compressed stream");
+		}
+		
+		if (crc != null && !anyMember) {
+			throw new EOFException("Empty GZIP stream");
+		}
+	}
+}
@@ -5,14 +5,23 @@ import java.io.InputStream;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.Channels;
 import java.nio.channels.Pipe.SourceChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.streams.WriteStream;
 
 /**
  * Uses {@link PipedWriteStream} to create an {@link InputStream} that has basic flow controls.
+ * Over a {@link HeapPipe} writes never block the writer's thread.
+ * 
+ * Unread bytes are counted as they are written and read. The write queue is full once they reach
+ * the high watermark (the write queue max size) and the drain handler is called back on the writer's
+ * context once reading takes them below the low watermark (half of it unless set).
  */
 public class InputWriteStream extends PipedWriteStream implements WriteStream<Buffer> {
 	private static final int DEFAULT_WRITE_QUEUE_SIZE = 10000;
@@ -23,24 +32,42 @@ public class InputWriteStream extends PipedWriteStream implements WriteStream<Bu
 	// the inputstream we create with flow controls
 	private final InputStream inputStream;
 	
-	private int maxWriteQueueSize = DEFAULT_WRITE_QUEUE_SIZE;
-	private int available = 0;
+	// bytes written but not yet read
+	private final AtomicLong available = new AtomicLong();
 	
-	private boolean writeQueueFull = false;
+	// set when the writer has seen the queue full, cleared when the drain is dispatched
+	private final AtomicBoolean drainPending = new AtomicBoolean();
 	
-	private Handler<Throwable> exceptionHandler = null;
-	private Handler<Void> drainHandler = null;
+	private volatile long highWatermark = DEFAULT_WRITE_QUEUE_SIZE;
+	private volatile long lowWatermark = DEFAULT_WRITE_QUEUE_SIZE / 2;
+	
+	// context of the last write, where drain is called back
+	private volatile Context writerContext = null;
+	
+	private volatile Handler<Throwable> exceptionHandler = null;
+	private volatile Handler<Void> drainHandler = null;
 	
 	public InputWriteStream() throws IOException {
 		super();
-		
 		this.channelStream = Channels.newInputStream(super.getSource());
-		
+		this.inputStream = createInputStream();
+	}
+	
+	/**
+	 * Creates a stream over an in-heap pipe, which needs no file descriptors and never blocks the writer
+	 */
+	public InputWriteStream(HeapPipe pipe) {
+		super(pipe);
+		this.channelStream = Channels.newInputStream(super.getSource());
+		this.inputStream = createInputStream();
+	}
+	
+	private InputStream createInputStream() {
 		// wrap with some flow control
-		this.inputStream = new InputStream() {
+		return new InputStream() {
 			@Override
 			public int available() throws IOException {
-				return available;
+				return (int)Math.min(available.get(), Integer.MAX_VALUE);
 			}
 			
 			@Override
@@ -101,20 +128,54 @@ public class InputWriteStream extends PipedWriteStream implements WriteStream<Bu
 		};
 	}
 	
-	private void updateAvailable(int delta) {
-		available += delta;
-		if (available < maxWriteQueueSize / 2) {
-			writeQueueFull = false;
-			if (drainHandler != null) {
-				this.drainHandler(null);
+	private void updateAvailable(long delta) {
+		var now = available.addAndGet(delta);
+		
+		if (delta > 0 && now >= highWatermark) {
+			drainPending.set(true);
+			
+			// the reader may have caught up before we set the flag, in which case it is up to us
+			if (available.get() >= lowWatermark) {
+				return;
 			}
 		}
-		else if (available < maxWriteQueueSize) {
-			writeQueueFull = false;
+		
+		if (available.get() < lowWatermark && drainPending.compareAndSet(true, false)) {
+			dispatchDrain();
+		}
+	}
+	
+	private void dispatchDrain() {
+		var context = this.writerContext;
+		if (context != null) {
+			// look the handler up on the context, as the writer may only be setting it now
+			context.runOnContext(v -> {
+				var handler = this.drainHandler;
+				if (handler != null) {
+					handler.handle(null);
+				}
+			});
 		}
 		else {
-			writeQueueFull = true;
+			var handler = this.drainHandler;
+			if (handler != null) {
+				handler.handle(null);
+			}
+		}
+	}
+	
+	/**
+	 * Sets the number of unread bytes at which the write queue is full (high)
+	 * and below which the drain handler is called (low).
+	 */
+	public InputWriteStream setWatermarks(long low, long high) {
+		if (low < 0 || low > high) {
+			throw new IllegalArgumentException("Expected 0 <= low <= high: " + low + ", " + high);
 		}
+		
+		this.lowWatermark = low;
+		this.highWatermark = high;
+		return this;
 	}
 	
 	/**
@@ -126,17 +187,21 @@ public class InputWriteStream extends PipedWriteStream implements WriteStream<Bu
 	
 	@Override
 	public boolean writeQueueFull() {
-		return this.writeQueueFull;
+		return available.get() >= highWatermark;
 	}
 	
 	@Override
 	public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
-		this.maxWriteQueueSize = maxSize;
-		return this;
+		return setWatermarks(maxSize / 2, maxSize);
 	}
 	
 	@Override
 	public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
+		var context = Vertx.currentContext();
+		if (context != null) {
+			this.writerContext = context;
+		}
+		
 		updateAvailable(data.length());
 		return super.write(data, handler);
 	}
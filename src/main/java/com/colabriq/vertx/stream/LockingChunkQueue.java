@@ -0,0 +1,111 @@
+package com.colabriq.vertx.stream;
+
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ChunkQueue} guarded by a lock, the reader waits on its condition.
+ */
+class LockingChunkQueue<T> implements ChunkQueue<T> {
+	private final Deque<T> queue = new LinkedList<>();
+	private boolean closed = false;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	
+	@Override
+	public void add(T chunk) {
+		lock.lock();
+		try {
+			queue.addLast(chunk);
+			notEmpty.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void reopen() {
+		lock.lock();
+		try {
+			closed = false;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		lock.lock();
+		try {
+			return queue.isEmpty();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public T peek() {
+		lock.lock();
+		try {
+			return queue.peekFirst();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void remove() {
+		lock.lock();
+		try {
+			queue.removeFirst();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void lock() {
+		lock.lock();
+	}
+	
+	@Override
+	public void unlock() {
+		lock.unlock();
+	}
+	
+	@Override
+	public T take(Runnable beforeWait) throws InterruptedException {
+		lock.lock();
+		try {
+			while (!closed && queue.isEmpty()) {
+				beforeWait.run();
+				notEmpty.await();
+			}
+			
+			return queue.peekFirst();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+}
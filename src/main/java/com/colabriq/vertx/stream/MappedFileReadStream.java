@@ -0,0 +1,248 @@
+package com.colabriq.vertx.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * A {@link ReadStream} serving a file through {@link FileChannel#map} in fixed-size windows.
+ *
+ * Each emitted {@link Buffer} is a read-only slice of the current window, so no bytes are copied
+ * and no worker thread is needed; pages are faulted in as the consumer reads them.
+ * Emission follows demand as for {@link WritableReadStream}, on the owning context: the one the stream
+ * was created on, or else the one its handler was set from. At most a window is emitted per turn
+ * of the event loop. The file should not be truncated while it is being streamed.
+ */
+public class MappedFileReadStream implements ReadStream<Buffer>, Closeable {
+	private static final int DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024;
+	private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	
+	private volatile Context context;
+	
+	private volatile Handler<Buffer> dataHandler;
+	private volatile Handler<Void> endHandler;
+	private volatile Handler<Throwable> exceptionHandler;
+	
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize, chunkSize;
+	
+	// only touched on the context
+	private MappedByteBuffer window = null;
+	private long position = 0;
+	private long demand = Long.MAX_VALUE;
+	private boolean scheduled = false, ended = false;
+	
+	public MappedFileReadStream(Path path) throws IOException {
+		this(Vertx.currentContext(), path, DEFAULT_WINDOW_SIZE, DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Creates a stream mapping windowSize bytes of the file at a time and emitting them chunkSize at a time
+	 */
+	public MappedFileReadStream(Context context, Path path, int windowSize, int chunkSize) throws IOException {
+		if (chunkSize <= 0 || windowSize < chunkSize) {
+			throw new IllegalArgumentException("Expected 0 < chunk size <= window size: " + chunkSize + ", " + windowSize);
+		}
+		
+		this.context = context;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		this.chunkSize = chunkSize;
+	}
+	
+	@Override
+	public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+		if (this.context == null) {
+			this.context = Vertx.currentContext();
+		}
+		
+		this.dataHandler = handler;
+		if (handler != null) {
+			onContext(this::schedule);
+		}
+		
+		return this;
+	}
+	
+	@Override
+	public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		return this;
+	}
+	
+	@Override
+	public ReadStream<Buffer> endHandler(Handler<Void> handler) {
+		this.endHandler = handler;
+		return this;
+	}
+	
+	@Override
+	public ReadStream<Buffer> pause() {
+		onContext(() -> this.demand = 0);
+		return this;
+	}
+	
+	@Override
+	public ReadStream<Buffer> resume() {
+		return fetch(Long.MAX_VALUE);
+	}
+	
+	@Override
+	public ReadStream<Buffer> fetch(long amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("Negative fetch: " + amount);
+		}
+		
+		onContext(() -> {
+			this.demand += amount;
+			if (this.demand < 0) {
+				this.demand = Long.MAX_VALUE;
+			}
+			
+			schedule();
+		});
+		
+		return this;
+	}
+	
+	/**
+	 * Runs action on the context, straight away if we are already there or there is none
+	 */
+	private void onContext(Runnable action) {
+		var context = this.context;
+		if (context == null || Vertx.currentContext() == context) {
+			action.run();
+		}
+		else {
+			context.runOnContext(v -> action.run());
+		}
+	}
+	
+	/**
+	 * Queues a turn of emission unless one is queued or there is nothing to do. Called on the context.
+	 */
+	private void schedule() {
+		if (scheduled || !canEmit()) {
+			return;
+		}
+		
+		scheduled = true;
+		var context = this.context;
+		if (context != null) {
+			context.runOnContext(v -> {
+				emit();
+				scheduled = false;
+				schedule();
+			});
+		}
+		else {
+			do {
+				emit();
+			}
+			while (canEmit());
+			
+			scheduled = false;
+		}
+	}
+	
+	private boolean canEmit() {
+		return !ended && demand > 0 && dataHandler != null;
+	}
+	
+	/**
+	 * Emits chunks while there is demand, up to the end of the current window
+	 */
+	private void emit() {
+		try {
+			while (canEmit()) {
+				if (position == size) {
+					end(null);
+					return;
+				}
+				
+				if (window == null) {
+					window = channel.map(MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+				}
+				
+				var chunk = window.slice();
+				chunk.limit(Math.min(chunkSize, chunk.remaining()));
+				window.position(window.position() + chunk.limit());
+				position += chunk.limit();
+				
+				if (demand != Long.MAX_VALUE) {
+					demand--;
+				}
+				
+				if (!window.hasRemaining()) {
+					window = null;
+				}
+				
+				var handler = this.dataHandler;
+				if (handler != null) {
+					handler.handle(Buffer.buffer(Unpooled.wrappedBuffer(chunk.asReadOnlyBuffer())));
+				}
+				
+				// the window is done, carry on next turn so other handlers get a look in
+				if (window == null) {
+					return;
+				}
+			}
+		}
+		catch (IOException e) {
+			end(e);
+		}
+	}
+	
+	private void end(Throwable failure) {
+		ended = true;
+		window = null;
+		
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+		
+		if (failure != null) {
+			var handler = this.exceptionHandler;
+			if (handler != null) {
+				handler.handle(failure);
+			}
+		}
+		else {
+			var handler = this.endHandler;
+			if (handler != null) {
+				handler.handle(null);
+			}
+		}
+	}
+	
+	/**
+	 * Stops the stream without ending it. Buffers already emitted stay readable.
+	 */
+	@Override
+	public void close() throws IOException {
+		onContext(() -> {
+			ended = true;
+			window = null;
+		});
+		
+		channel.close();
+	}
+}
@@ -0,0 +1,181 @@
+package com.colabriq.vertx.stream;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * A {@link WriteStream} writing into a file through {@link FileChannel#map}, mapping a further
+ * window as each one fills, so the file grows a window at a time. Ending the stream truncates
+ * the file to what was written and closes it.
+ *
+ * Each write is copied into the mapping before it returns and the kernel writes the pages back
+ * in its own time, so the write queue is never full and the drain handler is never needed.
+ * Call {@link #force()} from a worker where the bytes must be on disk.
+ * Writes are expected from one thread at a time, as they are from a Vert.x context.
+ */
+public class MappedFileWriteStream implements WriteStream<Buffer> {
+	private static final int DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024;
+	
+	private final FileChannel channel;
+	private final int windowSize;
+	
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private boolean ended = false;
+	
+	private Handler<Throwable> exceptionHandler = null;
+	
+	public MappedFileWriteStream(Path path) throws IOException {
+		this(path, DEFAULT_WINDOW_SIZE);
+	}
+	
+	/**
+	 * Creates or truncates the file at path, growing it windowSize bytes at a time
+	 */
+	public MappedFileWriteStream(Path path, int windowSize) throws IOException {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+		}
+		
+		this.channel = FileChannel.open(path,
+			StandardOpenOption.READ, StandardOpenOption.WRITE,
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			
+		this.windowSize = windowSize;
+	}
+	
+	/**
+	 * Returns how many bytes have been written
+	 */
+	public synchronized long position() {
+		return window != null ? windowStart + window.position() : windowStart;
+	}
+	
+	@Override
+	public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		return this;
+	}
+	
+	@Override
+	public WriteStream<Buffer> write(Buffer data) {
+		return write(data, null);
+	}
+	
+	@Override
+	public synchronized WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
+		try {
+			if (ended) {
+				throw new IllegalStateException("Stream ended");
+			}
+			
+			var src = data.getByteBuf();
+			while (src.isReadable()) {
+				if (window == null || !window.hasRemaining()) {
+					if (window != null) {
+						windowStart += window.position();
+					}
+					
+					// mapping beyond the end grows the file
+					window = channel.map(MapMode.READ_WRITE, windowStart, windowSize);
+				}
+				
+				var n = Math.min(src.readableBytes(), window.remaining());
+				var limit = window.limit();
+				window.limit(window.position() + n);
+				src.readBytes(window);
+				window.limit(limit);
+			}
+			
+			complete(handler);
+		}
+		catch (IOException | RuntimeException e) {
+			fail(handler, e);
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Makes sure everything written so far is on disk. Blocks, so call it from a worker.
+	 */
+	public void force() throws IOException {
+		MappedByteBuffer window;
+		synchronized (this) {
+			window = this.window;
+		}
+		
+		if (window != null) {
+			window.force();
+		}
+		
+		channel.force(false);
+	}
+	
+	@Override
+	public void end() {
+		end((Handler<AsyncResult<Void>>)null);
+	}
+	
+	@Override
+	public synchronized void end(Handler<AsyncResult<Void>> handler) {
+		if (ended) {
+			complete(handler);
+			return;
+		}
+		
+		ended = true;
+		try {
+			// the last window may run past what was written
+			var size = position();
+			window = null;
+			
+			channel.truncate(size);
+			channel.close();
+			complete(handler);
+		}
+		catch (IOException e) {
+			fail(handler, e);
+		}
+	}
+	
+	private void complete(Handler<AsyncResult<Void>> handler) {
+		if (handler != null) {
+			handler.handle(Future.succeededFuture());
+		}
+	}
+	
+	private void fail(Handler<AsyncResult<Void>> handler, Throwable cause) {
+		if (handler != null) {
+			handler.handle(Future.failedFuture(cause));
+		}
+		else if (exceptionHandler != null) {
+			exceptionHandler.handle(cause);
+		}
+	}
+	
+	@Override
+	public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+		return this;
+	}
+	
+	@Override
+	public boolean writeQueueFull() {
+		return false;
+	}
+	
+	@Override
+	public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+		return this;
+	}
+}
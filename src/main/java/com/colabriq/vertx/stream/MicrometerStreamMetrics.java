@@ -0,0 +1,65 @@
+package com.colabriq.vertx.stream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link StreamMetrics} published to a Micrometer {@link MeterRegistry}, aggregated over all the streams
+ * sharing an instance. Needs micrometer-core, an optional dependency of this library.
+ * 
+ * Meters, under the given prefix: bytes.in, bytes.out, queued.bytes (gauge), drains,
+ * read.blocked (timer) and write.queue.full (timer).
+ */
+public class MicrometerStreamMetrics implements StreamMetrics {
+	private final Counter bytesIn, bytesOut, drains;
+	private final Timer readBlocked, writeQueueFull;
+	
+	// written minus read, across all streams
+	private final AtomicLong queued = new AtomicLong();
+	
+	public MicrometerStreamMetrics(MeterRegistry registry, String prefix, Tags tags) {
+		this.bytesIn = registry.counter(prefix + ".bytes.in", tags);
+		this.bytesOut = registry.counter(prefix + ".bytes.out", tags);
+		this.drains = registry.counter(prefix + ".drains", tags);
+		this.readBlocked = registry.timer(prefix + ".read.blocked", tags);
+		this.writeQueueFull = registry.timer(prefix + ".write.queue.full", tags);
+		
+		Gauge.builder(prefix + ".queued.bytes", queued, AtomicLong::get)
+			.tags(tags)
+			.baseUnit("bytes")
+			.register(registry);
+	}
+	
+	@Override
+	public void bytesIn(int bytes) {
+		bytesIn.increment(bytes);
+		queued.addAndGet(bytes);
+	}
+	
+	@Override
+	public void bytesOut(int bytes) {
+		bytesOut.increment(bytes);
+		queued.addAndGet(-bytes);
+	}
+	
+	@Override
+	public void drained() {
+		drains.increment();
+	}
+	
+	@Override
+	public void readBlocked(long nanos) {
+		readBlocked.record(nanos, TimeUnit.NANOSECONDS);
+	}
+	
+	@Override
+	public void writeQueueFull(long nanos) {
+		writeQueueFull.record(nanos, TimeUnit.NANOSECONDS);
+	}
+}
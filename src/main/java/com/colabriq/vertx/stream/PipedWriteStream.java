@@ -1,8 +1,8 @@
 package com.colabriq.vertx.stream;
 
 import java.io.IOException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.Pipe;
-import java.nio.channels.Pipe.SinkChannel;
 import java.nio.channels.Pipe.SourceChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
@@ -16,11 +16,17 @@ import io.vertx.core.streams.WriteStream;
  * Implements {@link WriteStream} backed by an NIO {@link Pipe}
  * which can be used to consume it via {@link SourceChannel}.
  * 
+ * Alternatively backed by a {@link HeapPipe}, which needs no file descriptors,
+ * never blocks the writer and takes written buffers without copying them.
+ * 
  * No flow control.
  */
 public class PipedWriteStream implements WriteStream<Buffer> {
-	private final SourceChannel nioSource;
-	private final SinkChannel nioSink;
+	private final ReadableByteChannel nioSource;
+	private final GatheringByteChannel nioSink;
+	
+	// set when backed by a heap pipe
+	private final HeapPipe heapPipe;
 	
 	private boolean ended = false;
 	private Handler<Throwable> exceptionHandler = null;
@@ -30,6 +36,13 @@ public class PipedWriteStream implements WriteStream<Buffer> {
 		
 		this.nioSource = pipe.source();
 		this.nioSink = pipe.sink();
+		this.heapPipe = null;
+	}
+	
+	public PipedWriteStream(HeapPipe pipe) {
+		this.nioSource = pipe.source();
+		this.nioSink = pipe.sink();
+		this.heapPipe = pipe;
 	}
 	
 	public boolean isEnded() {
@@ -77,8 +90,17 @@ public class PipedWriteStream implements WriteStream<Buffer> {
 	public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
 		try {
 			var byteBuf = data.getByteBuf();
-			byteBuf.resetReaderIndex();
-			for (var nbuf : byteBuf.nioBuffers()) nioSink.write(nbuf);
+			byteBuf.readerIndex(byteBuf.writerIndex() - data.length());
+			
+			if (heapPipe != null) {
+				heapPipe.sink().write(byteBuf);
+			}
+			else {
+				// gathering write straight from the buffer's components, no flattening
+				while (byteBuf.isReadable()) {
+					byteBuf.readBytes(nioSink, byteBuf.readableBytes());
+				}
+			}
 			
 			if (handler != null) {
 				// generic void success
@@ -0,0 +1,68 @@
+package com.colabriq.vertx.stream;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Passes buffers through no faster than its {@link RateLimiter.Flow}s allow, e.g. in
+ * {@code source.pipeTo(limit); limit.pipeTo(sink)}.
+ *
+ * Each buffer is taken from every flow in turn before it goes on, so a call can be limited by a flow
+ * of its own and a flow shared by its tenant at once. Buffers waiting their turn fill the write queue,
+ * so the source is paused rather than the bytes piling up.
+ */
+public class RateLimitStream extends TransformStream {
+	private final RateLimiter.Flow[] flows;
+	
+	// the flow the oldest pending buffer is to be taken from next, and whether it's waiting on it
+	private int next = 0;
+	private boolean waiting = false;
+	
+	/**
+	 * Limits the stream to a budget of its own
+	 */
+	public RateLimitStream(Vertx vertx, long bytesPerSecond, long burst) {
+		this(new RateLimiter(vertx, bytesPerSecond, burst).flow(1));
+	}
+	
+	public RateLimitStream(RateLimiter.Flow... flows) {
+		this.flows = flows;
+	}
+	
+	@Override
+	protected void transform(Buffer data) {
+		if (data.length() > 0) {
+			push(data);
+		}
+	}
+	
+	@Override
+	protected boolean isFusable() {
+		return false;
+	}
+	
+	@Override
+	protected boolean canEmit(Buffer data) {
+		if (waiting) {
+			return false;
+		}
+		
+		while (next < flows.length) {
+			var granted = flows[next].acquire(data.length(), v -> {
+				waiting = false;
+				next++;
+				emitPending();
+			});
+			
+			if (!granted) {
+				waiting = true;
+				return false;
+			}
+			
+			next++;
+		}
+		
+		next = 0;
+		return true;
+	}
+}
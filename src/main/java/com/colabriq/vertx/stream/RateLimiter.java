@@ -0,0 +1,159 @@
+package com.colabriq.vertx.stream;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+/**
+ * A token bucket budget of bytes per second, shared by any number of {@link Flow}s, e.g. one per tenant
+ * shared by all its calls or one per call.
+ *
+ * The bucket holds up to the burst size. A flow may take more than is left, as buffers aren't split,
+ * and the bucket then goes into debt which later flows wait out, so the rate holds on average. While the
+ * bucket is empty, flows wait their turn in weighted fair order, so a flow of weight 4 gets four times
+ * the bytes of a flow of weight 1 and bulk transfers can't starve latency sensitive replies. Waiting is
+ * done on Vert.x timers, never by blocking a thread, and flows are told on their own context.
+ */
+public class RateLimiter {
+	/**
+	 * One user of the budget, weighted against the others
+	 */
+	public class Flow {
+		private final int weight;
+		
+		// the virtual time its latest bytes finish at
+		private double finishTag = 0;
+		
+		private Flow(int weight) {
+			this.weight = weight;
+		}
+		
+		/**
+		 * Takes bytes from the budget, returning true if it could straight away, or else false and
+		 * calling granted on the current context once they have been taken
+		 */
+		public boolean acquire(long bytes, Handler<Void> granted) {
+			return RateLimiter.this.acquire(this, bytes, granted);
+		}
+	}
+	
+	private static class Waiter {
+		private final long bytes;
+		private final double tag;
+		private final long seq;
+		private final Context context;
+		private final Handler<Void> granted;
+		
+		private Waiter(long bytes, double tag, long seq, Context context, Handler<Void> granted) {
+			this.bytes = bytes;
+			this.tag = tag;
+			this.seq = seq;
+			this.context = context;
+			this.granted = granted;
+		}
+	}
+	
+	private final Vertx vertx;
+	private final long bytesPerSecond;
+	private final long burst;
+	
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+	
+	// waiters in order of virtual finish time, the order they'd finish in if served at their weights
+	private final PriorityQueue<Waiter> waiting = new PriorityQueue<>(
+		Comparator.<Waiter>comparingDouble(w -> w.tag).thenComparingLong(w -> w.seq));
+	private double virtualTime = 0;
+	private long seq = 0;
+	private long timer = -1;
+	
+	/**
+	 * @param burst how many bytes may go at once after a quiet spell, starting full
+	 */
+	public RateLimiter(Vertx vertx, long bytesPerSecond, long burst) {
+		if (bytesPerSecond <= 0 || burst <= 0) {
+			throw new IllegalArgumentException("Rate and burst must be positive: " + bytesPerSecond + ", " + burst);
+		}
+		
+		this.vertx = vertx;
+		this.bytesPerSecond = bytesPerSecond;
+		this.burst = burst;
+		this.tokens = burst;
+	}
+	
+	/**
+	 * Returns a new flow drawing on this budget with the given weight
+	 */
+	public Flow flow(int weight) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("Weight must be positive: " + weight);
+		}
+		
+		return new Flow(weight);
+	}
+	
+	private synchronized boolean acquire(Flow flow, long bytes, Handler<Void> granted) {
+		refill();
+		
+		var tag = Math.max(virtualTime, flow.finishTag) + (double)bytes / flow.weight;
+		flow.finishTag = tag;
+		
+		if (waiting.isEmpty() && tokens >= 0) {
+			tokens -= bytes;
+			virtualTime = tag;
+			return true;
+		}
+		
+		waiting.add(new Waiter(bytes, tag, seq++, Vertx.currentContext(), granted));
+		schedule();
+		return false;
+	}
+	
+	private void refill() {
+		var now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * (double)bytesPerSecond / 1_000_000_000L);
+		lastRefill = now;
+	}
+	
+	/**
+	 * Sets a timer for when the bucket is out of debt, if one isn't set already
+	 */
+	private void schedule() {
+		if (timer < 0) {
+			var delay = Math.max(1, (long)Math.ceil(-tokens * 1000 / bytesPerSecond));
+			timer = vertx.setTimer(delay, id -> grant());
+		}
+	}
+	
+	private void grant() {
+		var granted = new ArrayList<Waiter>();
+		synchronized (this) {
+			timer = -1;
+			refill();
+			
+			while (!waiting.isEmpty() && tokens >= 0) {
+				var waiter = waiting.poll();
+				tokens -= waiter.bytes;
+				virtualTime = waiter.tag;
+				granted.add(waiter);
+			}
+			
+			if (!waiting.isEmpty()) {
+				schedule();
+			}
+		}
+		
+		for (var waiter : granted) {
+			if (waiter.context == null || waiter.context == Vertx.currentContext()) {
+				waiter.granted.handle(null);
+			}
+			else {
+				waiter.context.runOnContext(waiter.granted);
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.colabriq.vertx.stream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.reactivestreams.FlowAdapters;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Exposes a {@link ReadStream}, such as a {@link WritableReadStream}, as a Reactive Streams {@link Publisher}
+ * of {@link ByteBuffer}s, or via {@link #toFlowPublisher()} for {@link java.net.http.HttpRequest.BodyPublishers#fromPublisher}.
+ *
+ * The stream is paused straight away and request(n) is passed on as fetch(n), so it emits
+ * exactly as many buffers as requested and nothing is buffered here. Requests made off the stream's
+ * context are moved onto it. Only one subscriber is allowed.
+ */
+public class ReadStreamPublisher implements Publisher<ByteBuffer> {
+	private final ReadStream<Buffer> stream;
+	private final Context context;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+	
+	// set on the context
+	private volatile Subscriber<? super ByteBuffer> subscriber = null;
+	private volatile boolean ended = false;
+	private volatile Throwable failure = null;
+	
+	public ReadStreamPublisher(ReadStream<Buffer> stream) {
+		this(stream, Vertx.currentContext());
+	}
+	
+	/**
+	 * @param context where the stream is used from, or null if it can be used from any thread
+	 */
+	public ReadStreamPublisher(ReadStream<Buffer> stream, Context context) {
+		this.stream = stream;
+		this.context = context;
+		
+		// nothing flows until requested, but the stream may end before anyone subscribes
+		onContext(() -> {
+			stream.pause();
+			stream.handler(buffer -> subscriber.onNext(buffer.getByteBuf().nioBuffer()));
+			stream.endHandler(v -> {
+				ended = true;
+				if (subscriber != null) {
+					subscriber.onComplete();
+				}
+			});
+			stream.exceptionHandler(e -> {
+				failure = e;
+				if (subscriber != null) {
+					subscriber.onError(e);
+				}
+			});
+		});
+	}
+	
+	/**
+	 * Returns this as a {@link Flow.Publisher}
+	 */
+	public Flow.Publisher<ByteBuffer> toFlowPublisher() {
+		return FlowAdapters.toFlowPublisher(this);
+	}
+	
+	@Override
+	public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("subscriber");
+		}
+		
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Subscription() {
+				@Override public void request(long n) { }
+				@Override public void cancel() { }
+			});
+			
+			subscriber.onError(new IllegalStateException("Already subscribed"));
+			return;
+		}
+		
+		var subscription = new Subscription() {
+			private volatile boolean cancelled = false;
+			
+			@Override
+			public void request(long n) {
+				if (cancelled) {
+					return;
+				}
+				
+				if (n <= 0) {
+					cancel();
+					subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+					return;
+				}
+				
+				onContext(() -> stream.fetch(n));
+			}
+			
+			@Override
+			public void cancel() {
+				if (!cancelled) {
+					cancelled = true;
+					onContext(() -> {
+						stream.pause();
+						stream.handler(null);
+						stream.endHandler(null);
+						stream.exceptionHandler(null);
+					});
+				}
+			}
+		};
+		
+		onContext(() -> {
+			this.subscriber = subscriber;
+			subscriber.onSubscribe(subscription);
+			
+			if (failure != null) {
+				subscriber.onError(failure);
+			}
+			else if (ended) {
+				subscriber.onComplete();
+			}
+		});
+	}
+	
+	private void onContext(Runnable action) {
+		if (context == null || Vertx.currentContext() == context) {
+			action.run();
+		}
+		else {
+			context.runOnContext(v -> action.run());
+		}
+	}
+}
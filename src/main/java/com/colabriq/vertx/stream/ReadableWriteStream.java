@@ -2,10 +2,16 @@ package com.colabriq.vertx.stream;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import io.netty.buffer.ByteBuf;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
@@ -15,31 +21,113 @@ import io.vertx.core.streams.WriteStream;
  * A {@link WriteStream} that also implements a blocking {@link ReadableByteChannel}
  * that can be used in a threaded scenario to get bytes the {@link WriteStream} receives
  * blocking appropriately as you consume.
+ * 
+ * Scattering reads fill several buffers from as many queued chunks as are available in one call.
+ * 
+ * By default chunks are queued under a lock. Constructed with a ring size, chunks go through
+ * a lock-free single-producer/single-consumer ring instead, so the writer never contends with
+ * the reader; this requires all writes to come from one thread at a time, as they do from a Vert.x context.
+ * 
+ * Written buffers are not copied: a retained slice of each is queued, read from directly and released
+ * once it has been consumed, so composite and pooled Netty buffers are never flattened.
+ * 
+ * Traffic, drains and time spent blocked or full can be recorded with {@link #setMetrics(StreamMetrics)}.
+ * 
+ * With {@link #setOverflow(Path, long, long)}, chunks written while too much is queued in memory go to a
+ * temporary file and are read back from it in order, so a slow reader doesn't hold up the writer
+ * until the file itself gets too big.
+ * 
+ * Once the reader has closed the channel, writes fail with {@link ClosedChannelException} rather than
+ * queueing bytes nobody will read.
+ * 
+ * A stream ended with {@link #fail(Throwable)} rather than {@link #end()} throws the failure from
+ * the read after the last queued bytes, so a reader can't take a truncated stream for a whole one.
  */
-public class ReadableWriteStream implements WriteStream<Buffer>, ReadableByteChannel {
-	private final Deque<ByteBuffer> queue = new LinkedList<>();
+public class ReadableWriteStream implements WriteStream<Buffer>, ScatteringByteChannel {
+	private final ChunkQueue<ByteBuf> queue;
 	
-	private boolean open = true, ended = false;
-	private int queued = 0;
-	private int writeQueueMaxSize = 100;
+	private volatile boolean open = true, ended = false;
+	private volatile Throwable failure = null;
+	private final AtomicInteger queued = new AtomicInteger();
+	private volatile int writeQueueMaxSize = 100;
 	
-	private Handler<Void> drainHandler;
+	private volatile Handler<Void> drainHandler;
 	private Handler<Throwable> exceptionHandler = null;
 	
+	private volatile StreamMetrics metrics = StreamMetrics.NONE;
+	
+	// overflow, spill is null unless set
+	private volatile SpillFile spill = null;
+	private volatile long spillThreshold, maxSpillSize;
+	
+	// when writeQueueFull() first answered true, 0 if it hasn't since the last drain
+	private final AtomicLong fullSince = new AtomicLong();
+	
+	// when the reader started waiting, only used by the reader
+	private long blockedSince = 0;
+	
+	public ReadableWriteStream() {
+		this.queue = new LockingChunkQueue<>();
+	}
+	
+	/**
+	 * Creates a stream backed by lock-free rings of ringSize chunk slots
+	 */
+	public ReadableWriteStream(int ringSize) {
+		this.queue = new SpscChunkQueue<>(ringSize);
+	}
+	
+	/**
+	 * Sets where instrumentation events go, {@link StreamMetrics#NONE} by default
+	 */
+	public ReadableWriteStream setMetrics(StreamMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+	
+	/**
+	 * Appends chunks to a temporary file in directory (null for the default temporary directory) once
+	 * memoryThreshold bytes are queued. The write queue is then full once maxSpillSize bytes are waiting
+	 * in the file, rather than at the write queue max size. Set this before writing.
+	 */
+	public ReadableWriteStream setOverflow(Path directory, long memoryThreshold, long maxSpillSize) {
+		this.spillThreshold = memoryThreshold;
+		this.maxSpillSize = maxSpillSize;
+		this.spill = new SpillFile(directory);
+		return this;
+	}
+	
 	@Override
 	public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
-		System.out.println("drainHandler");
 		this.drainHandler = handler;
 		return this;
 	}
 	
 	private void checkDrain() {
-		System.out.println("checkDrain");
-		if (!ended && (queue.isEmpty() || queued < writeQueueMaxSize) && (drainHandler != null)) {
-			drainHandler.handle(null);
+		var handler = this.drainHandler;
+		if (!ended && !isFull() && (handler != null)) {
+			var metrics = this.metrics;
+			if (metrics != StreamMetrics.NONE) {
+				var since = fullSince.getAndSet(0);
+				if (since != 0) {
+					metrics.writeQueueFull(System.nanoTime() - since);
+				}
+				
+				metrics.drained();
+			}
+			
+			handler.handle(null);
 		}
 	}
 	
+	private void beforeWait() {
+		if (blockedSince == 0 && metrics != StreamMetrics.NONE) {
+			blockedSince = System.nanoTime();
+		}
+		
+		checkDrain();
+	}
+	
 	@Override
 	public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
 		this.exceptionHandler = handler;
@@ -47,20 +135,30 @@ public class ReadableWriteStream implements WriteStream<Buffer>, ReadableByteCha
 	}
 	
 	@Override
-	public synchronized WriteStream<Buffer> setWriteQueueMaxSize(int size) {
-		System.out.println("setWriteQueueMaxSize = " + size);
+	public WriteStream<Buffer> setWriteQueueMaxSize(int size) {
 		this.writeQueueMaxSize = size;
 		return this;
 	}
 
+	private boolean isFull() {
+		var spill = this.spill;
+		if (spill != null) {
+			return open && spill.waiting() >= maxSpillSize;
+		}
+		
+		return !(queue.isEmpty() || queued.get() < writeQueueMaxSize);
+	}
+	
 	@Override
-	public synchronized boolean writeQueueFull() {
-		if ((queue.isEmpty() || queued < writeQueueMaxSize)) {
-			System.out.println("writeQueue (not) Full");
+	public boolean writeQueueFull() {
+		if (!isFull()) {
 			return false;
 		}
 		else {
-			System.out.println("writeQueueFull!");
+			if (metrics != StreamMetrics.NONE) {
+				fullSince.compareAndSet(0, System.nanoTime());
+			}
+			
 			return true;
 		}
 	}
@@ -73,21 +171,37 @@ public class ReadableWriteStream implements WriteStream<Buffer>, ReadableByteCha
 
 	@Override
 	public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
-		System.out.println("write: " + data.length() + " (queued=" + (queued + data.length()) + ")");
+		if (!open) {
+			// the reader has gone, so nothing would ever release what we queued
+			failWrite(new ClosedChannelException(), handler);
+			return this;
+		}
 		
 		if (data.length() > 0) {
-			// wrap into NIO buffer
 			var bb = data.getByteBuf();
-			bb.resetReaderIndex(); // doc specifies this might not be 0
-			var niobb = bb.nioBuffer();
-		
-			synchronized (this) {
-				if (data.length() > 0) {
-					queued += niobb.remaining();
-					queue.addLast(niobb);
-					notifyAll();
+			// doc specifies the reader index might not be 0, and for a slice it's indexed into the parent
+			bb.readerIndex(bb.writerIndex() - data.length());
+			
+			var len = bb.readableBytes();
+			var spill = this.spill;
+			if (spill == null) {
+				queued.addAndGet(len);
+				queue.add(bb.retainedSlice());
+			}
+			else {
+				// spilled bytes are counted as queued too, the file is empty whenever the threshold matters
+				try {
+					var overThreshold = queued.getAndAdd(len) >= spillThreshold;
+					spill.add(queue, bb, overThreshold);
+				}
+				catch (IOException e) {
+					queued.addAndGet(-len);
+					failWrite(e, handler);
+					return this;
 				}
 			}
+			
+			metrics.bytesIn(len);
 		}
 		
 		if (handler != null) {
@@ -102,6 +216,20 @@ public class ReadableWriteStream implements WriteStream<Buffer>, ReadableByteCha
 		return this;
 	}
 
+	private void failWrite(Throwable cause, Handler<AsyncResult<Void>> handler) {
+		if (handler != null) {
+			handler.handle(new AsyncResult<Void>() {
+				@Override public boolean succeeded() { return false; }
+				@Override public boolean failed() { return true; }
+				@Override public Void result() { return null; }
+				@Override public Throwable cause() { return cause; }
+			});
+		}
+		else if (exceptionHandler != null) {
+			exceptionHandler.handle(cause);
+		}
+	}
+	
 	@Override
 	public void end() {
 		end((Handler<AsyncResult<Void>>)null);
@@ -109,10 +237,8 @@ public class ReadableWriteStream implements WriteStream<Buffer>, ReadableByteCha
 
 	@Override
 	public void end(Handler<AsyncResult<Void>> handler) {
-		synchronized (this) {
-			this.ended = true;
-			notifyAll();
-		}
+		this.ended = true;
+		queue.close();
 		
 		if (handler != null) {
 			handler.handle(new AsyncResult<Void>() {
@@ -124,67 +250,206 @@ public class ReadableWriteStream implements WriteStream<Buffer>, ReadableByteCha
 		}
 	}
 
+	/**
+	 * Ends the stream with a failure, which reads throw once the bytes already queued have been read
+	 */
+	public void fail(Throwable cause) {
+		this.failure = cause;
+		end();
+	}
+	
+	private void checkFailure() throws IOException {
+		var failure = this.failure;
+		if (failure != null) {
+			throw failure instanceof IOException ? (IOException)failure : new IOException(failure);
+		}
+	}
+	
 	@Override
-	public synchronized boolean isOpen() {
+	public boolean isOpen() {
 		return open;
 	}
 	
 	@Override
-	public synchronized int read(ByteBuffer dst) throws IOException {
-		System.out.println("read: open=" + open + " ended=" + ended + " queue=" + queue.size() + " queued=" + queued + " dst.rem=" + dst.remaining());
+	public int read(ByteBuffer dst) throws IOException {
+		if (!this.open) {
+			checkFailure();
+			return -1;
+		}
 		
-		int read = 0;
+		// check if dst buffer has any capacity left
+		if (dst.remaining() == 0) {
+			return 0;
+		}
 		
-		while (this.open) {
-			// check if dst buffer has any capacity left
-			if (dst.remaining() == 0) {
-				return read;
+		// wait for some bytes if the queue is empty
+		int read;
+		try {
+			var spill = this.spill;
+			if (spill != null && queue.take(this::beforeWait) == SpillFile.MARKER) {
+				read = spill.read(queue, dst);
 			}
-			
-			if (ended && queue.isEmpty()) {
-				this.open = false;
-				return -1;
+			else {
+				read = ChunkQueue.read(queue, dst, this::beforeWait);
 			}
-			
-			// wait for some bytes if the queue is empty
-			while (!ended && queue.isEmpty()) {
-				checkDrain();
-				
-				try {
-					wait();
-				}
-				catch (InterruptedException e) {
-				}
+		}
+		catch (InterruptedException e) {
+			// as for any interruptible channel
+			close();
+			Thread.currentThread().interrupt();
+			throw new ClosedByInterruptException();
+		}
+		catch (ClosedByInterruptException e) {
+			// interrupted reading the spill file
+			close();
+			throw e;
+		}
+		finally {
+			if (blockedSince != 0) {
+				metrics.readBlocked(System.nanoTime() - blockedSince);
+				blockedSince = 0;
+			}
+		}
+		
+		if (read < 0) {
+			if (!this.open && !ended) {
+				// closed while we were reading
+				throw new AsynchronousCloseException();
 			}
 			
-			if (!queue.isEmpty()) {
-				var nxt = queue.peek();
-				if (nxt.remaining() <= dst.remaining()) {
-					read += nxt.remaining();
-					dst.put(nxt);
-				}
-				else {
-					read += dst.remaining();
-					nxt.limit(nxt.position() + dst.remaining());
-					dst.put(nxt);
-					nxt.limit(nxt.capacity()); // back to start for next run 
-				}
-				
-				if (!nxt.hasRemaining()) {
-					queue.removeFirst();
+			// ended and nothing left
+			this.open = false;
+			checkFailure();
+			return -1;
+		}
+		
+		checkDrain();
+		this.queued.addAndGet(-read);
+		metrics.bytesOut(read);
+		return read;
+	}
+
+	@Override
+	public long read(ByteBuffer [] dsts, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset > dsts.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		
+		if (!this.open) {
+			checkFailure();
+			return -1;
+		}
+		
+		// check if the dst buffers have any capacity left
+		long remaining = 0;
+		for (int i = offset; i < offset + length; i++) {
+			remaining += dsts[i].remaining();
+		}
+		
+		if (remaining == 0) {
+			return 0;
+		}
+		
+		long read;
+		try {
+			var spill = this.spill;
+			if (spill != null && queue.take(this::beforeWait) == SpillFile.MARKER) {
+				// the file fills one buffer per call
+				var i = offset;
+				while (!dsts[i].hasRemaining()) {
+					i++;
 				}
 				
-				checkDrain();
-				this.queued -= read;
-				return read;
+				read = spill.read(queue, dsts[i]);
+			}
+			else {
+				read = ChunkQueue.read(queue, dsts, offset, length, this::beforeWait);
+			}
+		}
+		catch (InterruptedException e) {
+			// as for any interruptible channel
+			close();
+			Thread.currentThread().interrupt();
+			throw new ClosedByInterruptException();
+		}
+		catch (ClosedByInterruptException e) {
+			// interrupted reading the spill file
+			close();
+			throw e;
+		}
+		finally {
+			if (blockedSince != 0) {
+				metrics.readBlocked(System.nanoTime() - blockedSince);
+				blockedSince = 0;
 			}
 		}
 		
-		return -1;
+		if (read < 0) {
+			if (!this.open && !ended) {
+				// closed while we were reading
+				throw new AsynchronousCloseException();
+			}
+			
+			// ended and nothing left
+			this.open = false;
+			checkFailure();
+			return -1;
+		}
+		
+		checkDrain();
+		this.queued.addAndGet((int)-read);
+		metrics.bytesOut((int)read);
+		return read;
 	}
-
+	
+	@Override
+	public long read(ByteBuffer [] dsts) throws IOException {
+		return read(dsts, 0, dsts.length);
+	}
+	
+	/**
+	 * Returns the stream to the state it was created in, dropping anything unread and any handlers,
+	 * so it can be reused. Settings such as the write queue max size, overflow and metrics are kept.
+	 * Neither side may be using the stream.
+	 */
+	public void reset() throws IOException {
+		ChunkQueue.clear(queue);
+		queue.reopen();
+		
+		var spill = this.spill;
+		if (spill != null) {
+			spill.reset();
+		}
+		
+		queued.set(0);
+		fullSince.set(0);
+		blockedSince = 0;
+		
+		this.drainHandler = null;
+		this.exceptionHandler = null;
+		this.ended = false;
+		this.failure = null;
+		this.open = true;
+	}
+	
 	@Override
 	public void close() throws IOException {
+		this.open = false;
+		
+		// wake a reader blocked on another thread
+		queue.close();
+		
+		// release anything that will now never be read
+		var discarded = ChunkQueue.clear(queue);
+		queued.addAndGet(-discarded);
+		metrics.bytesOut(discarded);
+		
+		var spill = this.spill;
+		if (spill != null) {
+			spill.close();
+		}
 		
+		// a writer waiting for a drain writes again and finds out
+		checkDrain();
 	}
 }
@@ -0,0 +1,307 @@
+package com.colabriq.vertx.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.EmptyByteBuf;
+
+/**
+ * Overflow for a {@link ChunkQueue}: once the queue holds too much, chunks are appended to a temporary
+ * file instead and a marker is queued in their place. The reader serves the file's bytes when it reaches
+ * the marker and takes the marker off the queue once it has read everything spilled. Until then every
+ * chunk is spilled behind it, so the bytes come out in the order they went in.
+ *
+ * The file is written on a worker thread, one chunk after another, so a writer on the event loop never
+ * waits for the disk: spilling a chunk just retains it and hands it over. Bytes still being written count
+ * as waiting along with those in the file, and the reader waits at the marker for them to land.
+ * A failed write is thrown to both sides.
+ *
+ * One writer and one reader, as for the queue.
+ */
+class SpillFile implements Closeable {
+	/**
+	 * Queued in place of spilled chunks, and the only empty chunk a queue ever holds
+	 */
+	static final ByteBuf MARKER = new EmptyByteBuf(ByteBufAllocator.DEFAULT);
+	
+	private static final ExecutorService WRITER = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			var thread = new Thread(runnable, "spill-writer-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private final Path directory;
+	
+	// bytes in the file and not yet read, only ever written before they are counted
+	private final AtomicLong unread = new AtomicLong();
+	
+	// bytes handed to the worker and not yet in the file
+	private final AtomicLong writing = new AtomicLong();
+	
+	// guards the marker, the write position, which restarts once the file has been read, and the rest below
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition written = lock.newCondition();
+	private boolean markerQueued = false;
+	private long writePosition = 0;
+	
+	// the worker's queue of writes, run one after another
+	private CompletableFuture<Void> writes = CompletableFuture.completedFuture(null);
+	
+	// bumped by reset, so writes handed over before it are dropped
+	private long generation = 0;
+	private IOException failure = null;
+	private boolean closed = false;
+	
+	// opened by the worker on the first spill, the reader uses its position
+	private volatile FileChannel channel = null;
+	
+	/**
+	 * @param directory where the temporary file is created, null for the default temporary directory
+	 */
+	SpillFile(Path directory) {
+		this.directory = directory;
+	}
+	
+	/**
+	 * Returns how many spilled bytes are waiting to be read, including those not yet in the file
+	 */
+	long waiting() {
+		return unread.get() + writing.get();
+	}
+	
+	/**
+	 * Queues a retained slice of buf, unless the queue is over its threshold or earlier bytes are still
+	 * spilled, in which case a retained slice of buf is handed to the worker to append to the file.
+	 * Returns whether it was spilled.
+	 */
+	boolean add(ChunkQueue<ByteBuf> queue, ByteBuf buf, boolean overThreshold) throws IOException {
+		lock.lock();
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+			
+			if (!markerQueued && !overThreshold) {
+				queue.add(buf.retainedSlice());
+				return false;
+			}
+			
+			var chunk = buf.retainedSlice();
+			var position = writePosition;
+			var generation = this.generation;
+			writePosition += chunk.readableBytes();
+			writing.addAndGet(chunk.readableBytes());
+			writes = writes.thenRunAsync(() -> write(chunk, position, generation), WRITER);
+			
+			if (!markerQueued) {
+				queue.add(MARKER);
+				markerQueued = true;
+			}
+			
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Writes chunk to the file at position on the worker, then counts it as unread
+	 */
+	private void write(ByteBuf chunk, long position, long generation) {
+		var len = chunk.readableBytes();
+		IOException failure = null;
+		
+		try {
+			FileChannel channel;
+			lock.lock();
+			try {
+				if (generation != this.generation) {
+					return;
+				}
+				
+				channel = this.channel;
+			}
+			finally {
+				lock.unlock();
+			}
+			
+			if (channel == null) {
+				channel = open(generation);
+			}
+			
+			var src = chunk.nioBuffer();
+			while (src.hasRemaining()) {
+				position += channel.write(src, position);
+			}
+		}
+		catch (IOException e) {
+			failure = e;
+		}
+		finally {
+			chunk.release();
+		}
+		
+		lock.lock();
+		try {
+			if (generation == this.generation) {
+				if (failure == null) {
+					unread.addAndGet(len);
+				}
+				else if (this.failure == null) {
+					this.failure = failure;
+				}
+				
+				writing.addAndGet(-len);
+				written.signalAll();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Creates the file, unless the spill has been reset since the write was handed over
+	 */
+	private FileChannel open(long generation) throws IOException {
+		var file = directory != null ? Files.createTempFile(directory, "spill", ".tmp") : Files.createTempFile("spill", ".tmp");
+		var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		
+		lock.lock();
+		try {
+			if (generation == this.generation && !closed) {
+				this.channel = channel;
+				return channel;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		channel.close();
+		throw new ClosedChannelException();
+	}
+	
+	/**
+	 * Reads spilled bytes into dst, called by the reader with the marker at the head of queue.
+	 * Waits for the worker if none are in the file yet.
+	 */
+	int read(ChunkQueue<ByteBuf> queue, ByteBuffer dst) throws IOException, InterruptedException {
+		lock.lock();
+		try {
+			while (unread.get() == 0 && failure == null && !closed) {
+				written.await();
+			}
+			
+			if (closed) {
+				throw new AsynchronousCloseException();
+			}
+			
+			if (unread.get() == 0) {
+				throw failure;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		var count = (int)Math.min(unread.get(), dst.remaining());
+		
+		var limit = dst.limit();
+		dst.limit(dst.position() + count);
+		try {
+			while (dst.hasRemaining()) {
+				if (channel.read(dst) < 0) {
+					throw new IOException("Spill file truncated");
+				}
+			}
+		}
+		finally {
+			dst.limit(limit);
+		}
+		
+		lock.lock();
+		try {
+			// the writer only checks the marker under the lock, so it can't slip anything in now
+			if (unread.addAndGet(-count) == 0 && writing.get() == 0) {
+				queue.remove();
+				markerQueued = false;
+				
+				// start the file over
+				writePosition = 0;
+				channel.position(0);
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Deletes the file and forgets anything spilled, for reuse once the queue has been emptied.
+	 * Writes the worker hasn't finished are dropped.
+	 */
+	void reset() throws IOException {
+		lock.lock();
+		try {
+			close();
+			generation++;
+			channel = null;
+			unread.set(0);
+			writing.set(0);
+			markerQueued = false;
+			writePosition = 0;
+			writes = CompletableFuture.completedFuture(null);
+			failure = null;
+			closed = false;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Deletes the file, waking a reader waiting on the worker
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			closed = true;
+			written.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		var channel = this.channel;
+		if (channel != null) {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.colabriq.vertx.stream;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer {@link ChunkQueue}.
+ * 
+ * Chunks go into fixed-size rings of slots. When the writer fills a ring it links a new one,
+ * and once the reader has emptied a ring it hands it back to be reused, so in the steady state
+ * writing allocates nothing. The reader parks with {@link LockSupport} while the queue is empty.
+ */
+class SpscChunkQueue<T> implements ChunkQueue<T> {
+	private static class Ring {
+		private final AtomicReferenceArray<Object> slots;
+		private volatile Ring next = null;
+		
+		private Ring(int size) {
+			this.slots = new AtomicReferenceArray<>(size);
+		}
+	}
+	
+	private final int ringSize;
+	
+	// ring emptied by the reader, waiting to be reused by the writer
+	private final AtomicReference<Ring> spare = new AtomicReference<>();
+	
+	// counts of chunks added and removed, each only written by one side
+	private final AtomicLong added = new AtomicLong(), removed = new AtomicLong();
+	
+	// writer state
+	private Ring tail;
+	private int tailIndex = 0;
+	
+	// reader state
+	private Ring head;
+	private int headIndex = 0;
+	
+	private volatile boolean closed = false;
+	private volatile Thread waiter = null;
+	
+	SpscChunkQueue(int ringSize) {
+		if (ringSize < 1) {
+			throw new IllegalArgumentException("Ring size must be positive: " + ringSize);
+		}
+		
+		this.ringSize = ringSize;
+		this.head = this.tail = new Ring(ringSize);
+	}
+	
+	@Override
+	public void add(T chunk) {
+		if (tailIndex == ringSize) {
+			var ring = spare.getAndSet(null);
+			if (ring == null) {
+				ring = new Ring(ringSize);
+			}
+			
+			tail.next = ring;
+			tail = ring;
+			tailIndex = 0;
+		}
+		
+		tail.slots.set(tailIndex++, chunk);
+		added.lazySet(added.get() + 1);
+		
+		var w = waiter;
+		if (w != null) {
+			LockSupport.unpark(w);
+		}
+	}
+	
+	@Override
+	public void close() {
+		closed = true;
+		
+		var w = waiter;
+		if (w != null) {
+			LockSupport.unpark(w);
+		}
+	}
+	
+	@Override
+	public void reopen() {
+		closed = false;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return removed.get() == added.get();
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public T peek() {
+		if (headIndex == ringSize) {
+			var next = head.next;
+			if (next == null) {
+				return null;
+			}
+			
+			// every slot of the old ring has been cleared, so the writer can have it back
+			var emptied = head;
+			head = next;
+			headIndex = 0;
+			emptied.next = null;
+			spare.lazySet(emptied);
+		}
+		
+		return (T)head.slots.get(headIndex);
+	}
+	
+	@Override
+	public void remove() {
+		head.slots.lazySet(headIndex++, null);
+		removed.lazySet(removed.get() + 1);
+	}
+	
+	@Override
+	public T take(Runnable beforeWait) throws InterruptedException {
+		while (true) {
+			var chunk = peek();
+			if (chunk != null) {
+				return chunk;
+			}
+			
+			if (closed) {
+				// anything added before closing is visible now
+				return peek();
+			}
+			
+			beforeWait.run();
+			
+			// publish ourselves before the final check so an add() in between will unpark us
+			waiter = Thread.currentThread();
+			if (peek() == null && !closed) {
+				LockSupport.park(this);
+			}
+			
+			waiter = null;
+			
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+}
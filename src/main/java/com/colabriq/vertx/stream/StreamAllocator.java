@@ -0,0 +1,70 @@
+package com.colabriq.vertx.stream;
+
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Where the stream bridges get their buffers from.
+ *
+ * Bytes that stay inside the bridges, such as those queued in a {@link HeapPipe}, go in buffers from the
+ * allocator (pooled and direct by default) and are released once read.
+ *
+ * Buffers handed to Vert.x can't be pooled: Vert.x 3 never releases a buffer it is given, so one taken
+ * from a pool would never go back to it. Those come from {@link #handoffBuffer(int)}, which always
+ * allocates plain heap buffers whatever the allocator, and are only used where the bytes have to be
+ * copied anyway, such as out of a caller's array or {@link ByteBuffer}, or a reused chunk.
+ */
+public class StreamAllocator {
+	public static final StreamAllocator POOLED = new StreamAllocator(PooledByteBufAllocator.DEFAULT);
+	public static final StreamAllocator UNPOOLED = new StreamAllocator(UnpooledByteBufAllocator.DEFAULT);
+	
+	private static volatile StreamAllocator defaultAllocator = POOLED;
+	
+	private final ByteBufAllocator allocator;
+	
+	public StreamAllocator(ByteBufAllocator allocator) {
+		this.allocator = allocator;
+	}
+	
+	/**
+	 * Returns the allocator used by bridges created without one
+	 */
+	public static StreamAllocator getDefault() {
+		return defaultAllocator;
+	}
+	
+	/**
+	 * Sets the allocator used by bridges created from now on without one
+	 */
+	public static void setDefault(StreamAllocator allocator) {
+		defaultAllocator = allocator;
+	}
+	
+	/**
+	 * Returns a direct buffer for bytes that stay inside the bridges, which must be released
+	 */
+	public ByteBuf buffer(int capacity) {
+		return allocator.directBuffer(capacity);
+	}
+	
+	/**
+	 * Returns an unpooled heap buffer for bytes that will be handed to Vert.x, which doesn't need releasing.
+	 * It never comes from the allocator, as Vert.x would never give it back.
+	 */
+	public ByteBuf handoffBuffer(int capacity) {
+		return Unpooled.buffer(capacity);
+	}
+	
+	/**
+	 * Copies bytes to hand to Vert.x into an unpooled heap buffer
+	 */
+	public Buffer copyOf(byte [] bytes, int offset, int length) {
+		return Buffer.buffer(handoffBuffer(length).writeBytes(bytes, offset, length));
+	}
+}
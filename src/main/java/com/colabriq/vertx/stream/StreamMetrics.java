@@ -0,0 +1,38 @@
+package com.colabriq.vertx.stream;
+
+/**
+ * Receives instrumentation events from a stream bridge such as {@link ReadableWriteStream}.
+ * Every method defaults to doing nothing, and bridges skip timing entirely when given {@link #NONE}.
+ * Implementations may be shared by many streams and are called from both their writer and reader threads.
+ */
+public interface StreamMetrics {
+	/**
+	 * Records nothing, the default
+	 */
+	StreamMetrics NONE = new StreamMetrics() { };
+	
+	/**
+	 * Bytes were written into the stream's queue
+	 */
+	default void bytesIn(int bytes) { }
+	
+	/**
+	 * Bytes were read out of the stream's queue, or discarded on close
+	 */
+	default void bytesOut(int bytes) { }
+	
+	/**
+	 * The drain handler was called
+	 */
+	default void drained() { }
+	
+	/**
+	 * A read blocked for nanos waiting for bytes
+	 */
+	default void readBlocked(long nanos) { }
+	
+	/**
+	 * The write queue stayed full for nanos before draining
+	 */
+	default void writeQueueFull(long nanos) { }
+}
@@ -0,0 +1,207 @@
+package com.colabriq.vertx.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Chains a source through any number of stages into a sink, e.g.
+ * {@code StreamPipeline.from(request).through(FramingStream.lines(max)).through(new DeflateStream(6, true)).to(response)}.
+ *
+ * Stages are piped together, so backpressure from the sink carries all the way back to the source.
+ * Adjacent {@link TransformStream}s that can be are fused into one stage first: a buffer then goes through
+ * each of them in one call, with no queue or pipe in between, and only the last queues its output. Once
+ * fused a stage mustn't be used on its own, though anything else about it, like a {@link DigestStream}'s
+ * digest, works as before.
+ */
+public class StreamPipeline {
+	/**
+	 * Where a stage is written to and read from, the same stream for most
+	 */
+	private static class Stage {
+		private final WriteStream<Buffer> in;
+		private final ReadStream<Buffer> out;
+		
+		private Stage(WriteStream<Buffer> in, ReadStream<Buffer> out) {
+			this.in = in;
+			this.out = out;
+		}
+	}
+	
+	/**
+	 * Runs a chain of transforms as one, each pushing straight into the next
+	 */
+	private static class FusedStream extends TransformStream {
+		private final TransformStream[] stages;
+		
+		private FusedStream(List<TransformStream> stages) {
+			this.stages = stages.toArray(new TransformStream[0]);
+			
+			for (int i = 0; i < this.stages.length - 1; i++) {
+				var next = this.stages[i + 1];
+				this.stages[i].fuseTo(data -> feed(next, data));
+			}
+			
+			this.stages[this.stages.length - 1].fuseTo(this::push);
+		}
+		
+		private static void feed(TransformStream stage, Buffer data) {
+			try {
+				stage.transform(data);
+			}
+			catch (StageFailure e) {
+				throw e;
+			}
+			catch (Exception e) {
+				// carried out through the stages before it, which can't throw it themselves
+				throw new StageFailure(e);
+			}
+		}
+		
+		@Override
+		protected void transform(Buffer data) throws Exception {
+			try {
+				stages[0].transform(data);
+			}
+			catch (StageFailure e) {
+				throw (Exception)e.getCause();
+			}
+		}
+		
+		@Override
+		protected void finish() throws Exception {
+			try {
+				// each pushes what it held back into the next before that finishes
+				for (var stage : stages) {
+					stage.finish();
+				}
+			}
+			catch (StageFailure e) {
+				throw (Exception)e.getCause();
+			}
+		}
+		
+		@Override
+		protected void abort() {
+			for (var stage : stages) {
+				stage.abort();
+			}
+		}
+	}
+	
+	private static class StageFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		private StageFailure(Exception cause) {
+			super(cause);
+		}
+	}
+	
+	private final ReadStream<Buffer> source;
+	private final List<Stage> stages = new ArrayList<>();
+	
+	private StreamPipeline(ReadStream<Buffer> source) {
+		this.source = source;
+	}
+	
+	/**
+	 * Starts a pipeline reading from source
+	 */
+	public static StreamPipeline from(ReadStream<Buffer> source) {
+		return new StreamPipeline(source);
+	}
+	
+	/**
+	 * Adds a transform, fused with any next to it
+	 */
+	public StreamPipeline through(TransformStream stage) {
+		return through(stage, stage);
+	}
+	
+	/**
+	 * Adds a stage written to through in and read from through out, e.g. the two ends of a call
+	 */
+	public StreamPipeline through(WriteStream<Buffer> in, ReadStream<Buffer> out) {
+		stages.add(new Stage(in, out));
+		return this;
+	}
+	
+	/**
+	 * Fuses the stages and pipes them together into sink, completing once sink has been ended,
+	 * or failing with the first stage to fail. A failure doesn't end the sink: a {@link ReadableWriteStream}
+	 * is failed, so its reader sees it, and anything else is left for the owner of the returned future.
+	 */
+	public Future<Void> to(WriteStream<Buffer> sink) {
+		var promise = Promise.<Void>promise();
+		
+		ReadStream<Buffer> upstream = source;
+		for (var stage : fuse()) {
+			// a failure is reported where it happens rather than ending what's downstream
+			upstream.pipe()
+				.endOnFailure(false)
+				.to(stage.in, result -> {
+					if (result.failed()) {
+						promise.tryFail(result.cause());
+					}
+				});
+				
+			upstream = stage.out;
+		}
+		
+		// nor is the sink ended when something before it fails, as that would pass off a truncated body as whole
+		upstream.pipe()
+			.endOnFailure(false)
+			.to(sink, result -> {
+				if (result.succeeded()) {
+					promise.tryComplete();
+				}
+				else {
+					if (sink instanceof ReadableWriteStream) {
+						((ReadableWriteStream)sink).fail(result.cause());
+					}
+					
+					promise.tryFail(result.cause());
+				}
+			});
+			
+		return promise.future();
+	}
+	
+	/**
+	 * Returns the stages with each run of fusable transforms replaced by one stage
+	 */
+	private List<Stage> fuse() {
+		var fused = new ArrayList<Stage>();
+		var run = new ArrayList<TransformStream>();
+		
+		for (var stage : stages) {
+			if (stage.in == stage.out && stage.in instanceof TransformStream && ((TransformStream)stage.in).isFusable()) {
+				run.add((TransformStream)stage.in);
+				continue;
+			}
+			
+			endRun(run, fused);
+			fused.add(stage);
+		}
+		
+		endRun(run, fused);
+		return fused;
+	}
+	
+	private void endRun(List<TransformStream> run, List<Stage> fused) {
+		if (run.size() == 1) {
+			fused.add(new Stage(run.get(0), run.get(0)));
+		}
+		else if (run.size() > 1) {
+			var stream = new FusedStream(run);
+			fused.add(new Stage(stream, stream));
+		}
+		
+		run.clear();
+	}
+}
@@ -0,0 +1,317 @@
+package com.colabriq.vertx.stream;
+
+import java.util.ArrayDeque;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * A stage that can sit between a {@link ReadStream} and a {@link WriteStream}, e.g. in
+ * {@code source.pipeTo(transform); transform.pipeTo(sink)}, turning each buffer written to it
+ * into whatever {@link #transform(Buffer)} pushes out.
+ *
+ * Pushed buffers wait until there is demand for them. The write queue is full once the bytes waiting
+ * reach the write queue max size and the drain handler is called once they are below half of it, so
+ * backpressure from the sink carries through to the source. Like other Vert.x streams it is meant
+ * to be used from one context.
+ */
+public abstract class TransformStream implements WriteStream<Buffer>, ReadStream<Buffer> {
+	private static final int DEFAULT_WRITE_QUEUE_MAX_SIZE = 64 * 1024;
+	
+	private Handler<Buffer> dataHandler;
+	private Handler<Void> endHandler;
+	private Handler<Throwable> exceptionHandler, writeExceptionHandler;
+	private Handler<Void> drainHandler;
+	
+	private final ArrayDeque<Buffer> pending = new ArrayDeque<>();
+	private long pendingBytes = 0;
+	private int writeQueueMaxSize = DEFAULT_WRITE_QUEUE_MAX_SIZE;
+	
+	private long demand = Long.MAX_VALUE;
+	private boolean ended = false, endEmitted = false;
+	private boolean emitting = false, drainNeeded = false;
+	private Throwable failure = null;
+	
+	// once fused into a pipeline, pushes go straight into the next stage instead
+	private Handler<Buffer> fusedTo = null;
+	
+	/**
+	 * Transforms data, handing the result on with {@link #push(Buffer)}
+	 */
+	protected abstract void transform(Buffer data) throws Exception;
+	
+	/**
+	 * Called when the write side ends, to push anything held back
+	 */
+	protected void finish() throws Exception {
+	}
+	
+	/**
+	 * Called once if the stream fails, instead of {@link #finish()}, to free what finish would have
+	 */
+	protected void abort() {
+	}
+	
+	/**
+	 * Queues output to be emitted when there is demand for it. Empty buffers are emitted too,
+	 * as for some stages, such as an empty record, they mean something.
+	 */
+	protected final void push(Buffer output) {
+		if (fusedTo != null) {
+			fusedTo.handle(output);
+			return;
+		}
+		
+		pending.add(output);
+		pendingBytes += output.length();
+		emit();
+	}
+	
+	/**
+	 * Whether next, the oldest pending buffer, may be emitted now, for stages that pace their output.
+	 * A stage that says not yet calls {@link #emitPending()} once it may.
+	 */
+	protected boolean canEmit(Buffer next) {
+		return true;
+	}
+	
+	/**
+	 * Whether output may go straight on to the next stage as it is pushed, so the stage can be fused
+	 * with its neighbours in a {@link StreamPipeline}. Stages that pace their output can't be.
+	 */
+	protected boolean isFusable() {
+		return true;
+	}
+	
+	/**
+	 * Hands pushed output straight to next rather than queueing it, called as the stage is fused
+	 */
+	void fuseTo(Handler<Buffer> next) {
+		this.fusedTo = next;
+	}
+	
+	/**
+	 * Emits whatever pending buffers there is demand for
+	 */
+	protected final void emitPending() {
+		emit();
+	}
+	
+	/**
+	 * Returns how many bytes have been pushed but not yet emitted
+	 */
+	protected long pendingBytes() {
+		return pendingBytes;
+	}
+	
+	@Override
+	public TransformStream write(Buffer data) {
+		return write(data, null);
+	}
+	
+	@Override
+	public TransformStream write(Buffer data, Handler<AsyncResult<Void>> handler) {
+		if (failure != null || ended) {
+			complete(handler, failure != null ? failure : new IllegalStateException("Stream ended"));
+			return this;
+		}
+		
+		try {
+			transform(data);
+			complete(handler, null);
+		}
+		catch (Exception e) {
+			fail(e);
+			completeWrite(handler, e);
+		}
+		
+		return this;
+	}
+	
+	@Override
+	public void end() {
+		end((Handler<AsyncResult<Void>>)null);
+	}
+	
+	@Override
+	public void end(Handler<AsyncResult<Void>> handler) {
+		if (failure != null || ended) {
+			complete(handler, failure);
+			return;
+		}
+		
+		try {
+			finish();
+			ended = true;
+			emit();
+			complete(handler, null);
+		}
+		catch (Exception e) {
+			fail(e);
+			completeWrite(handler, e);
+		}
+	}
+	
+	private void complete(Handler<AsyncResult<Void>> handler, Throwable cause) {
+		if (handler != null) {
+			handler.handle(cause != null ? Future.failedFuture(cause) : Future.succeededFuture());
+		}
+	}
+	
+	/**
+	 * Reports a failed write or end to its handler, or to the write side's exception handler if it has none
+	 */
+	private void completeWrite(Handler<AsyncResult<Void>> handler, Throwable cause) {
+		if (handler != null) {
+			complete(handler, cause);
+		}
+		else if (writeExceptionHandler != null) {
+			writeExceptionHandler.handle(cause);
+		}
+	}
+	
+	/**
+	 * Drops anything pending, frees the stage and reports cause on the read side
+	 */
+	private void fail(Throwable cause) {
+		failure = cause;
+		ended = true;
+		endEmitted = true;
+		pending.clear();
+		pendingBytes = 0;
+		abort();
+		
+		if (exceptionHandler != null) {
+			exceptionHandler.handle(cause);
+		}
+	}
+	
+	@Override
+	public TransformStream setWriteQueueMaxSize(int maxSize) {
+		this.writeQueueMaxSize = maxSize;
+		return this;
+	}
+	
+	@Override
+	public boolean writeQueueFull() {
+		if (pendingBytes >= writeQueueMaxSize) {
+			drainNeeded = true;
+			return true;
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public TransformStream drainHandler(Handler<Void> handler) {
+		this.drainHandler = handler;
+		return this;
+	}
+	
+	/**
+	 * Sets the read side's exception handler, which is told when the stream fails, as a pipe from it sets
+	 */
+	@Override
+	public TransformStream exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		return this;
+	}
+	
+	/**
+	 * Sets the write side's exception handler, told when a write or end made without a handler of its own
+	 * fails. It is kept apart from {@link #exceptionHandler(Handler)}, which a pipe from the stream takes over.
+	 */
+	public TransformStream writeExceptionHandler(Handler<Throwable> handler) {
+		this.writeExceptionHandler = handler;
+		return this;
+	}
+	
+	@Override
+	public TransformStream handler(Handler<Buffer> handler) {
+		this.dataHandler = handler;
+		emit();
+		return this;
+	}
+	
+	@Override
+	public TransformStream endHandler(Handler<Void> handler) {
+		this.endHandler = handler;
+		return this;
+	}
+	
+	@Override
+	public TransformStream pause() {
+		this.demand = 0;
+		return this;
+	}
+	
+	@Override
+	public TransformStream resume() {
+		return fetch(Long.MAX_VALUE);
+	}
+	
+	@Override
+	public TransformStream fetch(long amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("Negative fetch: " + amount);
+		}
+		
+		this.demand += amount;
+		if (this.demand < 0) {
+			this.demand = Long.MAX_VALUE;
+		}
+		
+		emit();
+		return this;
+	}
+	
+	/**
+	 * Emits pending buffers while there is demand, then the end once they have all gone.
+	 * Handlers may push, write or fetch as they are called, which the loop picks up.
+	 */
+	private void emit() {
+		if (emitting || dataHandler == null) {
+			return;
+		}
+		
+		emitting = true;
+		try {
+			while (true) {
+				while (demand > 0 && !pending.isEmpty() && canEmit(pending.peek())) {
+					var data = pending.poll();
+					pendingBytes -= data.length();
+					if (demand != Long.MAX_VALUE) {
+						demand--;
+					}
+					
+					dataHandler.handle(data);
+				}
+				
+				if (ended && !endEmitted && pending.isEmpty()) {
+					endEmitted = true;
+					if (endHandler != null) {
+						endHandler.handle(null);
+					}
+				}
+				
+				if (drainNeeded && pendingBytes < writeQueueMaxSize / 2) {
+					drainNeeded = false;
+					if (drainHandler != null) {
+						// go round again for whatever it writes
+						drainHandler.handle(null);
+						continue;
+					}
+				}
+				
+				break;
+			}
+		}
+		finally {
+			emitting = false;
+		}
+	}
+}
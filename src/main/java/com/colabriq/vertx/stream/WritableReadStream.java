@@ -1,12 +1,19 @@
 package com.colabriq.vertx.stream;
 
-import static io.netty.buffer.Unpooled.wrappedBuffer;
-
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.Context;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.streams.ReadStream;
 
@@ -14,21 +21,117 @@ import io.vertx.core.streams.ReadStream;
  * A {@link ReadStream} that also implements a blocking {@link WritableByteChannel}
  * that can be used in a threaded scenario to send bytes the {@link ReadStream} can read
  * blocking appropriately as it is consumed.
+ *
+ * Written bytes are copied into a pending buffer and everything pending is emitted as one {@link Buffer}
+ * whenever there is demand, one buffer per unit fetched. Data and end events are dispatched on the
+ * owning context: the one the stream was created on, or else the one its handler was set from.
+ * The writer only blocks while more than the max pending size is waiting to be emitted.
+ * A gathering write appends all of its sources before anything is emitted, so they go out together.
+ * A writer interrupted while blocked closes the stream, which is reported to the exception handler
+ * rather than as an end.
+ * Closing the stream wakes a writer blocked on another thread with {@link java.nio.channels.AsynchronousCloseException}.
+ * 
+ * With {@link #setAdaptiveChunking(int, int, long)}, small writes are coalesced until a target chunk size
+ * is pending or the linger time has passed. The target doubles whenever a full chunk has to wait for the
+ * consumer to fetch it, as fewer bigger chunks then cost the consumer less, and halves whenever the linger
+ * time passes first, as the writer is then too slow to fill it without adding latency.
  */
-public class WritableReadStream implements ReadStream<Buffer>, WritableByteChannel {	
-	private Handler<Buffer> dataHandler;
-	private Handler<Void> endHandler;
-	private Handler<Throwable> exceptionHandler;
-	
-	private boolean open = true;
-	private boolean flowing = true;
-	private int demand = 0;
-
+public class WritableReadStream implements ReadStream<Buffer>, GatheringByteChannel {
+	private static final int DEFAULT_MAX_PENDING_SIZE = 64 * 1024;
+	
+	private final StreamAllocator allocator = StreamAllocator.getDefault();
+	private volatile Context context;
+	
+	private volatile Handler<Buffer> dataHandler;
+	private volatile Handler<Void> endHandler;
+	private volatile Handler<Throwable> exceptionHandler;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition writable = lock.newCondition();
+	
+	// all guarded by lock
+	private ByteBuf pending = null;
+	private Throwable failure = null;
+	private long demand = Long.MAX_VALUE;
+	private int maxPendingSize = DEFAULT_MAX_PENDING_SIZE;
+	private boolean open = true, ended = false;
+	private boolean emitting = false, writerWaiting = false;
+	
+	// adaptive chunking, off while chunkSize is 0
+	private int chunkSize = 0, minChunkSize, maxChunkSize;
+	private long lingerMillis;
+	private long lingerTimer = -1;
+	private boolean lingerExpired = false, waitedForDemand = false;
+	
 	public WritableReadStream() {
+		this.context = Vertx.currentContext();
+	}
+	
+	public WritableReadStream(Context context) {
+		this.context = context;
+	}
+	
+	/**
+	 * Sets how many bytes may wait to be emitted before writes block
+	 */
+	public WritableReadStream setMaxPendingSize(int maxPendingSize) {
+		lock.lock();
+		try {
+			this.maxPendingSize = maxPendingSize;
+			writable.signalAll();
+			return this;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Coalesces writes into chunks of between minChunkSize and maxChunkSize bytes, adapting to how quickly
+	 * they are fetched, but emitting anything that has been pending for lingerMillis regardless.
+	 * Needs a context for the linger timer, without one writes are emitted as they come.
+	 */
+	public WritableReadStream setAdaptiveChunking(int minChunkSize, int maxChunkSize, long lingerMillis) {
+		if (minChunkSize <= 0 || maxChunkSize < minChunkSize || lingerMillis <= 0) {
+			throw new IllegalArgumentException("Expected 0 < min <= max chunk size and a positive linger: "
+				+ minChunkSize + ", " + maxChunkSize + ", " + lingerMillis);
+		}
+		
+		lock.lock();
+		try {
+			this.minChunkSize = minChunkSize;
+			this.maxChunkSize = maxChunkSize;
+			this.chunkSize = minChunkSize;
+			this.lingerMillis = lingerMillis;
+			
+			// the writer mustn't block before a chunk can fill
+			this.maxPendingSize = Math.max(maxPendingSize, maxChunkSize);
+			return this;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the size chunks are currently coalesced to, 0 unless adaptive chunking is on
+	 */
+	public int getChunkSize() {
+		lock.lock();
+		try {
+			return chunkSize;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
 	@Override
 	public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+		if (this.context == null) {
+			this.context = Vertx.currentContext();
+		}
+		
 		this.dataHandler = handler;
 		return this;
 	}
@@ -38,7 +141,7 @@ public class WritableReadStream implements ReadStream<Buffer>, WritableByteChann
 		this.exceptionHandler = handler;
 		return this;
 	}
-
+	
 	@Override
 	public ReadStream<Buffer> endHandler(Handler<Void> handler) {
 		this.endHandler = handler;
@@ -46,106 +149,424 @@ public class WritableReadStream implements ReadStream<Buffer>, WritableByteChann
 	}
 	
 	@Override
-	public synchronized ReadStream<Buffer> pause() {
-		this.flowing = false;
-		this.demand = 0;
-		
-		notifyAll();
-		
-		return this;
+	public ReadStream<Buffer> pause() {
+		lock.lock();
+		try {
+			this.demand = 0;
+			return this;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
-
+	
 	@Override
-	public synchronized ReadStream<Buffer> resume() {
-		this.flowing = true;
-		this.demand = 0;
-		
-		notifyAll();
-		
-		return this;
+	public ReadStream<Buffer> resume() {
+		return fetch(Long.MAX_VALUE);
 	}
 	
 	@Override
-	public synchronized ReadStream<Buffer> fetch(long amount) {
-		if (!this.flowing) {
+	public ReadStream<Buffer> fetch(long amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("Negative fetch: " + amount);
+		}
+		
+		boolean dispatch;
+		lock.lock();
+		try {
 			this.demand += amount;
-			notifyAll();
+			if (this.demand < 0) {
+				this.demand = Long.MAX_VALUE;
+			}
+			
+			dispatch = startEmitting();
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		if (dispatch) {
+			dispatch();
 		}
 		
 		return this;
 	}
 	
 	@Override
-	public synchronized boolean isOpen() {
-		return this.open;
+	public boolean isOpen() {
+		lock.lock();
+		try {
+			return this.open;
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
 	@Override
 	public int write(ByteBuffer src) throws IOException {
 		var remain = src.remaining();
 		
-		while (open) {
+		boolean dispatch;
+		lock.lock();
+		try {
+			awaitWritable();
+			if (remain == 0) {
+				return 0;
+			}
+			
+			// the caller may reuse src as soon as we return, so copy it
+			if (pending == null) {
+				pending = allocator.handoffBuffer(remain);
+			}
+			
+			pending.writeBytes(src);
+			dispatch = startEmitting();
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		if (dispatch) {
+			dispatch();
+		}
+		
+		return remain;
+	}
+	
+	@Override
+	public long write(ByteBuffer [] srcs, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset > srcs.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		
+		long remain = 0;
+		for (int i = offset; i < offset + length; i++) {
+			remain += srcs[i].remaining();
+		}
+		
+		boolean dispatch;
+		lock.lock();
+		try {
+			awaitWritable();
+			if (remain == 0) {
+				return 0;
+			}
+			
+			// copied as for a single write, sized once for all of them
+			if (pending == null) {
+				pending = allocator.handoffBuffer((int)Math.min(remain, Integer.MAX_VALUE - 8));
+			}
+			
+			for (int i = offset; i < offset + length; i++) {
+				pending.writeBytes(srcs[i]);
+			}
+			
+			dispatch = startEmitting();
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		if (dispatch) {
+			dispatch();
+		}
+		
+		return remain;
+	}
+	
+	@Override
+	public long write(ByteBuffer [] srcs) throws IOException {
+		return write(srcs, 0, srcs.length);
+	}
+	
+	/**
+	 * Waits until the consumer has taken what is already pending. Called holding the lock.
+	 */
+	private void awaitWritable() throws IOException {
+		var waited = false;
+		while (open && pending != null && pending.readableBytes() >= maxPendingSize) {
 			try {
-				if (flowing) {
-					if (dataHandler != null) {
-						dataHandler.handle(Buffer.buffer(wrappedBuffer(src)));
-					}
-					
-					// move position to end of buffer
-					src.position(src.position() + src.remaining());
-					
-					return remain;
+				waited = true;
+				writerWaiting = true;
+				writable.await();
+			}
+			catch (InterruptedException e) {
+				// as for any interruptible channel, and the reader gets told why
+				var closed = new ClosedByInterruptException();
+				fail(closed);
+				Thread.currentThread().interrupt();
+				throw closed;
+			}
+			finally {
+				writerWaiting = false;
+			}
+		}
+		
+		if (!open) {
+			// closed by another thread while we were blocked
+			throw waited ? new AsynchronousCloseException() : new ClosedChannelException();
+		}
+	}
+	
+	/**
+	 * Whether the end has been emitted, after which the stream is done with
+	 */
+	public boolean isEnded() {
+		lock.lock();
+		try {
+			return this.ended;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the stream to the state it was created in on the current context, dropping anything pending
+	 * and any handlers, so it can be reused. The max pending size is kept.
+	 * Neither side may be using the stream.
+	 */
+	public void reset() {
+		lock.lock();
+		try {
+			if (pending != null) {
+				pending.release();
+				pending = null;
+			}
+			
+			failure = null;
+			demand = Long.MAX_VALUE;
+			open = true;
+			ended = false;
+			emitting = false;
+			writerWaiting = false;
+			
+			cancelLinger();
+			lingerExpired = false;
+			waitedForDemand = false;
+			if (chunkSize > 0) {
+				chunkSize = minChunkSize;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		this.dataHandler = null;
+		this.endHandler = null;
+		this.exceptionHandler = null;
+		this.context = Vertx.currentContext();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		fail(null);
+	}
+	
+	/**
+	 * Closes the channel, ending the stream once everything pending has been emitted,
+	 * or failing it with cause straight away, dropping what is pending.
+	 */
+	private void fail(Throwable cause) {
+		boolean dispatch;
+		lock.lock();
+		try {
+			if (!this.open) {
+				return;
+			}
+			
+			this.open = false;
+			
+			// wake a writer blocked on another thread
+			writable.signalAll();
+			
+			if (cause != null) {
+				this.failure = cause;
+				if (pending != null) {
+					pending.release();
+					pending = null;
 				}
-				else if (demand >= remain) {
-					if (this.dataHandler != null) {
-						this.dataHandler.handle(Buffer.buffer(wrappedBuffer(src)));
+			}
+			
+			dispatch = startEmitting();
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		if (dispatch) {
+			dispatch();
+		}
+	}
+	
+	/**
+	 * Claims the right to emit if there is something that can be emitted now
+	 * and nobody else is emitting it. Called holding the lock.
+	 */
+	private boolean startEmitting() {
+		if (emitting) {
+			return false;
+		}
+		
+		var hasData = pending != null && pending.isReadable();
+		if (hasData && !isChunkReady()) {
+			startLinger();
+			return false;
+		}
+		
+		if ((hasData && demand > 0) || (!hasData && !open && !ended)) {
+			emitting = true;
+			return true;
+		}
+		
+		if (hasData) {
+			// a chunk is ready but the consumer isn't
+			waitedForDemand = true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Whether what is pending should go out now rather than wait for more. Called holding the lock.
+	 */
+	private boolean isChunkReady() {
+		return chunkSize == 0 || context == null || !open || lingerExpired || pending.readableBytes() >= chunkSize;
+	}
+	
+	private void startLinger() {
+		if (lingerTimer < 0) {
+			var vertx = context.owner();
+			lingerTimer = vertx.setTimer(lingerMillis, id -> {
+				boolean dispatch;
+				lock.lock();
+				try {
+					if (lingerTimer != id) {
+						return;
 					}
 					
-					// move position to end of buffer
-					src.position(src.position() + src.remaining());
-					
-					return remain;
+					lingerTimer = -1;
+					lingerExpired = true;
+					dispatch = startEmitting();
 				}
-				else if (demand > 0) {
-					// set limit to demand amount
-					src.limit(src.position() + demand);
-					
-					if (this.dataHandler != null) {
-						this.dataHandler.handle(Buffer.buffer(wrappedBuffer(src)));
-					}
-					
-					// move position by demand consumed
-					src.position(src.position() + demand);
-					
-					return demand;
+				finally {
+					lock.unlock();
 				}
-				else {
-					wait(); // wait until at least one byte can be written
+				
+				if (dispatch) {
+					dispatch();
 				}
-			}
-			catch (InterruptedException e) {
-				// continue loop
-			}
+			});
+		}
+	}
+	
+	private void cancelLinger() {
+		if (lingerTimer >= 0) {
+			context.owner().cancelTimer(lingerTimer);
+			lingerTimer = -1;
+		}
+	}
+	
+	/**
+	 * Grows the chunk size if the last chunk had to wait for the consumer, or shrinks it
+	 * if it went out part filled. Called holding the lock as a chunk is emitted.
+	 */
+	private void adaptChunkSize() {
+		if (chunkSize == 0) {
+			return;
 		}
 		
-		if (this.exceptionHandler != null) {
-			var e = new IOException("ReadStream has closed");
-			e.fillInStackTrace();
-			this.exceptionHandler.handle(e);
+		if (waitedForDemand) {
+			chunkSize = Math.min(maxChunkSize, chunkSize * 2);
+		}
+		else if (lingerExpired) {
+			chunkSize = Math.max(minChunkSize, chunkSize / 2);
 		}
 		
-		return -1;
+		waitedForDemand = false;
+		lingerExpired = false;
+		cancelLinger();
 	}
 	
-	@Override
-	public synchronized void close() throws IOException {
-		this.open = false;
-		if (this.endHandler != null) {
-			this.endHandler.handle(null);
+	private void dispatch() {
+		var context = this.context;
+		if (context != null) {
+			context.runOnContext(v -> {
+				if (emit()) {
+					dispatch();
+				}
+			});
+		}
+		else {
+			while (emit());
+		}
+	}
+	
+	/**
+	 * Emits everything pending as one buffer, or the end once nothing is pending.
+	 * Returns true if there is more to emit, in which case we are still the emitter.
+	 */
+	private boolean emit() {
+		Buffer data = null;
+		boolean end = false;
+		Throwable failure = null;
+		
+		lock.lock();
+		try {
+			if (demand > 0 && pending != null && pending.isReadable() && isChunkReady()) {
+				adaptChunkSize();
+				
+				// pending came from the heap, so can be handed over as it is
+				data = Buffer.buffer(pending);
+				pending = null;
+				
+				if (demand != Long.MAX_VALUE) {
+					demand--;
+				}
+				
+				if (writerWaiting) {
+					writable.signalAll();
+				}
+			}
+			else if (!open && !ended && (pending == null || !pending.isReadable())) {
+				ended = true;
+				end = true;
+				failure = this.failure;
+			}
+		}
+		finally {
+			lock.unlock();
 		}
 		
-		synchronized (this) {
-			this.notifyAll();
+		if (data != null) {
+			var handler = this.dataHandler;
+			if (handler != null) {
+				handler.handle(data);
+			}
+		}
+		
+		if (end && failure != null) {
+			var handler = this.exceptionHandler;
+			if (handler != null) {
+				handler.handle(failure);
+			}
+		}
+		else if (end) {
+			var handler = this.endHandler;
+			if (handler != null) {
+				handler.handle(null);
+			}
+		}
+		
+		// anything written or fetched while we were emitting
+		lock.lock();
+		try {
+			emitting = false;
+			return startEmitting();
+		}
+		finally {
+			lock.unlock();
 		}
 	}
 }
@@ -1,71 +1,279 @@
 package com.colabriq.vertx.stream;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import io.netty.buffer.Unpooled;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.streams.WriteStream;
 
 /**
  * Provides an implementation of the {@link WriteStream} that can be used as an {@link OutputStream}
+ *
+ * Given a buffer size, writes are gathered into a reusable chunk that is written to the
+ * {@link WriteStream} when it fills up, on {@link #flush()}, or once the linger time has passed since
+ * the first byte went into it. Otherwise every write goes straight to the {@link WriteStream}, copied
+ * into an unpooled heap buffer (see {@link StreamAllocator}) as the caller may reuse its array at once.
+ *
+ * Whenever the {@link WriteStream}'s write queue is full after a write, the calling thread blocks
+ * until it drains (or the write timeout passes), so a fast writer can't queue unbounded data.
+ * Failed writes are thrown as {@link IOException} from the next call, or from the blocked one.
+ * A drain handler of the caller's own has to be set through {@link #drainHandler(Handler)},
+ * as the {@link WriteStream}'s is borrowed while blocked.
  */
 public class WriteOutputStream extends OutputStream {
 	private final WriteStream<Buffer> writeStream;
+	private final StreamAllocator allocator = StreamAllocator.getDefault();
+	
+	// batching, chunk is null when unbuffered
+	private final byte [] chunk;
+	private int count = 0;
+	
+	private final Vertx vertx;
+	private final long lingerMillis;
+	private long lingerTimer = -1;
+	
+	private volatile long writeTimeoutMillis = 0;
+	private volatile Throwable failure = null;
+	
+	// the caller's drain handler, and what a blocked writer is waiting on
+	private volatile Handler<Void> drainHandler = null;
+	private volatile CompletableFuture<Void> drained = null;
+	
+	private final Handler<AsyncResult<Void>> resultHandler = result -> {
+		if (result.failed()) {
+			if (failure == null) {
+				failure = result.cause();
+			}
+			
+			// don't leave a blocked writer waiting on a drain that may never come
+			var drained = this.drained;
+			if (drained != null) {
+				drained.completeExceptionally(result.cause());
+			}
+		}
+	};
 	
 	public WriteOutputStream(WriteStream<Buffer> writeStream) {
+		this(writeStream, 0);
+	}
+	
+	/**
+	 * Creates a stream batching writes into chunks of bufferSize bytes
+	 */
+	public WriteOutputStream(WriteStream<Buffer> writeStream, int bufferSize) {
+		this(null, writeStream, bufferSize, 0);
+	}
+	
+	/**
+	 * Creates a stream batching writes into chunks of bufferSize bytes,
+	 * using timers on vertx to write out a chunk that has lingered for lingerMillis
+	 */
+	public WriteOutputStream(Vertx vertx, WriteStream<Buffer> writeStream, int bufferSize, long lingerMillis) {
+		if (bufferSize < 0) {
+			throw new IllegalArgumentException("Negative buffer size: " + bufferSize);
+		}
+		
 		this.writeStream = writeStream;
+		this.chunk = bufferSize > 0 ? new byte[bufferSize] : null;
+		this.vertx = vertx;
+		this.lingerMillis = lingerMillis;
+	}
+	
+	/**
+	 * Sets how long a write may block waiting for the write queue to drain, 0 to wait indefinitely
+	 */
+	public WriteOutputStream setWriteTimeout(long millis) {
+		this.writeTimeoutMillis = millis;
+		return this;
+	}
+	
+	/**
+	 * Sets the drain handler of the {@link WriteStream}, keeping it in place across blocked writes
+	 */
+	public WriteOutputStream drainHandler(Handler<Void> handler) {
+		this.drainHandler = handler;
+		writeStream.drainHandler(handler);
+		return this;
 	}
 	
 	@Override
 	public void write(int b) throws IOException {
-		var blocker = new CompletableFuture<AsyncResult<Void>>();
-		writeStream.write(Buffer.buffer(new byte [] { (byte)b }), result -> blocker.complete(result));
+		checkFailure();
+		
+		if (chunk != null) {
+			synchronized (this) {
+				chunk[count++] = (byte)b;
+				if (count < chunk.length) {
+					startLinger();
+					return;
+				}
+				
+				emit();
+			}
+		}
+		else {
+			writeStream.write(Buffer.buffer(new byte [] { (byte)b }), resultHandler);
+		}
 		
-//		while (true) {
-//			try {
-//				var result = blocker.take();
-//				if (result.succeeded()) {
-//					return;
-//				}
-//				else {
-//					throw new IOException(result.cause());
-//				}
-//			}
-//			catch (InterruptedException e) {
-//			}
-//		}
+		awaitWritable();
 	}
 
 	@Override
 	public void write(byte b[], int off, int len) throws IOException {
-		var blocker = new CompletableFuture<AsyncResult<Void>>();
-		writeStream.write(Buffer.buffer(Unpooled.wrappedBuffer(b, off, len)), result -> blocker.complete(result));
+		checkFailure();
 		
-//		while (true) {
-//			try {
-//				var result = blocker.take();
-//				if (result.succeeded()) {
-//					return;
-//				}
-//				else {
-//					throw new IOException(result.cause());
-//				}
-//			}
-//			catch (InterruptedException e) {
-//			}
-//		}
+		if (chunk != null) {
+			while (len > 0) {
+				boolean emitted = false;
+				synchronized (this) {
+					var n = Math.min(len, chunk.length - count);
+					System.arraycopy(b, off, chunk, count, n);
+					count += n;
+					off += n;
+					len -= n;
+					
+					if (count == chunk.length) {
+						emitted = emit();
+					}
+					else {
+						startLinger();
+					}
+				}
+				
+				// wait between chunks so big writes stay bounded too
+				if (emitted) {
+					awaitWritable();
+				}
+			}
+		}
+		else {
+			// the caller may reuse b as soon as we return, so copy it
+			writeStream.write(allocator.copyOf(b, off, len), resultHandler);
+			awaitWritable();
+		}
+	}
+	
+	/**
+	 * Writes out the gathered chunk, copying it so the chunk can be reused straight away.
+	 * Returns whether there was anything to write.
+	 */
+	private boolean emit() {
+		if (lingerTimer >= 0) {
+			vertx.cancelTimer(lingerTimer);
+			lingerTimer = -1;
+		}
+		
+		if (count > 0) {
+			var data = allocator.copyOf(chunk, 0, count);
+			count = 0;
+			writeStream.write(data, resultHandler);
+			return true;
+		}
+		
+		return false;
+	}
+	
+	private void startLinger() {
+		if (vertx != null && lingerMillis > 0 && lingerTimer < 0) {
+			lingerTimer = vertx.setTimer(lingerMillis, id -> {
+				synchronized (this) {
+					if (lingerTimer == id) {
+						lingerTimer = -1;
+						emit();
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Blocks until the write queue is no longer full. Never blocks an event loop,
+	 * where we'd be waiting on ourselves.
+	 */
+	private void awaitWritable() throws IOException {
+		checkFailure();
+		
+		if (writeStream.writeQueueFull() && !Context.isOnEventLoopThread()) {
+			var drained = new CompletableFuture<Void>();
+			var callerHandler = this.drainHandler;
+			this.drained = drained;
+			writeStream.drainHandler(v -> {
+				drained.complete(null);
+				if (callerHandler != null) {
+					callerHandler.handle(v);
+				}
+			});
+			
+			try {
+				// it may have drained, or a write failed, before we were waiting
+				if (!writeStream.writeQueueFull() || failure != null) {
+					drained.complete(null);
+				}
+				
+				var timeout = this.writeTimeoutMillis;
+				if (timeout > 0) {
+					drained.get(timeout, TimeUnit.MILLISECONDS);
+				}
+				else {
+					drained.get();
+				}
+			}
+			catch (TimeoutException e) {
+				throw new InterruptedIOException("Timed out waiting for the write queue to drain");
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for the write queue to drain");
+			}
+			catch (ExecutionException e) {
+				throw new IOException("Write failed", e.getCause());
+			}
+			finally {
+				this.drained = null;
+				writeStream.drainHandler(callerHandler);
+			}
+		}
+		
+		checkFailure();
+	}
+	
+	private void checkFailure() throws IOException {
+		var failure = this.failure;
+		if (failure != null) {
+			throw new IOException("Write failed", failure);
+		}
 	}
 	
 	@Override
 	public void flush() throws IOException {
+		checkFailure();
+		
+		boolean emitted;
+		synchronized (this) {
+			emitted = emit();
+		}
+		
+		if (emitted) {
+			awaitWritable();
+		}
 	}
 	
 	@Override
 	public void close() throws IOException {
+		synchronized (this) {
+			emit();
+		}
+		
 		writeStream.end();
+		checkFailure();
 	}
 }
@@ -0,0 +1,113 @@
+package com.colabriq.vertx.stream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+import org.reactivestreams.FlowAdapters;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Writes what a Reactive Streams publisher of {@link ByteBuffer}s emits into a {@link WriteStream},
+ * such as a {@link ReadableWriteStream}. Use {@link #toFlowSubscriber()} for {@link Flow} publishers.
+ *
+ * One buffer is requested at a time and the next only once the write queue is not full,
+ * waiting for the drain handler if it is, so nothing is buffered beyond the stream's own queue.
+ * Emitted buffers are wrapped rather than copied, as the publisher hands them over.
+ * The stream is ended when the publisher completes. If it fails the stream is not ended, as that would
+ * pass off a truncated body as whole: a {@link ReadableWriteStream} is failed, so its reader sees the
+ * failure, and anything else is left for the owner of {@link #result()} to deal with.
+ */
+public class WriteStreamSubscriber implements Subscriber<ByteBuffer> {
+	private final WriteStream<Buffer> stream;
+	private final Context context;
+	private final Promise<Void> result = Promise.promise();
+	
+	private volatile Subscription subscription = null;
+	
+	public WriteStreamSubscriber(WriteStream<Buffer> stream) {
+		this(stream, Vertx.currentContext());
+	}
+	
+	/**
+	 * @param context where the stream is used from, or null if it can be used from any thread
+	 */
+	public WriteStreamSubscriber(WriteStream<Buffer> stream, Context context) {
+		this.stream = stream;
+		this.context = context;
+	}
+	
+	/**
+	 * Completes once the stream has been ended, or fails if the publisher did
+	 */
+	public Future<Void> result() {
+		return result.future();
+	}
+	
+	/**
+	 * Returns this as a {@link Flow.Subscriber}
+	 */
+	public Flow.Subscriber<ByteBuffer> toFlowSubscriber() {
+		return FlowAdapters.toFlowSubscriber(this);
+	}
+	
+	@Override
+	public void onSubscribe(Subscription subscription) {
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		
+		this.subscription = subscription;
+		subscription.request(1);
+	}
+	
+	@Override
+	public void onNext(ByteBuffer item) {
+		onContext(() -> {
+			stream.write(Buffer.buffer(Unpooled.wrappedBuffer(item)));
+			if (stream.writeQueueFull()) {
+				stream.drainHandler(v -> {
+					stream.drainHandler(null);
+					subscription.request(1);
+				});
+			}
+			else {
+				subscription.request(1);
+			}
+		});
+	}
+	
+	@Override
+	public void onError(Throwable e) {
+		onContext(() -> {
+			if (stream instanceof ReadableWriteStream) {
+				((ReadableWriteStream)stream).fail(e);
+			}
+			
+			result.tryFail(e);
+		});
+	}
+	
+	@Override
+	public void onComplete() {
+		onContext(() -> stream.end(result));
+	}
+	
+	private void onContext(Runnable action) {
+		if (context == null || Vertx.currentContext() == context) {
+			action.run();
+		}
+		else {
+			context.runOnContext(v -> action.run());
+		}
+	}
+}
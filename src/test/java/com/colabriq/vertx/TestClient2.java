@@ -4,22 +4,32 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
 import java.net.http.HttpClient.Version;
 import java.util.concurrent.CompletableFuture;
 
+import com.colabriq.vertx.stream.ReadStreamPublisher;
+import com.colabriq.vertx.stream.WritableReadStream;
+
 public class TestClient2 {
 	public static void main(String[] args) throws Exception {
+		var rStream = new WritableReadStream();
+		
 		HttpRequest request = HttpRequest.newBuilder()
 			.version(Version.HTTP_2)
 		    .uri(new URI("http://localhost:8080/rpc"))
 		    .headers("Content-Type", "text/plain;charset=UTF-8")
-		    .POST(HttpRequest.BodyPublishers.ofString("Hello"))
+		    .POST(HttpRequest.BodyPublishers.fromPublisher(new ReadStreamPublisher(rStream).toFlowPublisher()))
 		    .build();
 		
 		CompletableFuture<HttpResponse<String>> response = HttpClient.newBuilder()
 			.build()
 			.sendAsync(request, HttpResponse.BodyHandlers.ofString());
-
+			
+		var writer = Channels.newWriter(rStream, "UTF-8");
+		writer.write("Hello");
+		writer.close();
+		
 		var result = response.get();
 		
 		System.out.println(result.statusCode());
@@ -1,8 +1,8 @@
 package com.colabriq.vertx;
 
-import java.io.IOException;
 import java.nio.channels.Channels;
 
+import com.colabriq.vertx.stream.BlockingExecutor;
 import com.colabriq.vertx.stream.WritableReadStream;
 
 import io.vertx.core.Vertx;
@@ -12,6 +12,7 @@ public class TestServer {
 	public static void main(String[] args) {
 		var vertx = Vertx.vertx();
 		var router = Router.router(vertx);
+		var executor = new BlockingExecutor();
 		
 		router.post("/rpc").handler(ctx -> {
 			ctx.response().putHeader("Content-type", "text/plain");
@@ -20,20 +21,21 @@ public class TestServer {
 			var rStream = new WritableReadStream();
 			rStream.pipeTo(ctx.response());
 			
-			new Thread(() -> {
-				try {	
-					var writer = Channels.newWriter(rStream, "US-ASCII");
-					
-					for (int i = 0; i < 20; i++) {
-						writer.write("testing testing 1 2 3 4 5 6 7 8 9 0\n");
-					}
-					
-					writer.close();
+			var call = executor.submit(() -> {
+				var writer = Channels.newWriter(rStream, "US-ASCII");
+				
+				for (int i = 0; i < 20; i++) {
+					writer.write("testing testing 1 2 3 4 5 6 7 8 9 0\n");
 				}
-				catch (IOException e) {
-					e.printStackTrace();
-				}
-			}).start();
+				
+				writer.close();
+				return null;
+			});
+			
+			call.result().onFailure(Throwable::printStackTrace);
+			
+			// stop writing if the client goes away
+			ctx.response().closeHandler(v -> call.cancel());
 		});
 		
 		vertx
@@ -0,0 +1,53 @@
+package com.colabriq.vertx.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base state for the stream benchmarks: one stream per benchmark thread,
+ * fed with chunks of {@link #chunkSize} bytes cut from a text resource.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class ChunkBenchmark {
+	@Param({ "1", "64", "1024", "8192", "65536", "1048576" })
+	public int chunkSize;
+	
+	@Param({ "small.txt", "full.txt" })
+	public String resource;
+	
+	/**
+	 * Returns a chunk of {@link #chunkSize} bytes, repeating the resource as often as needed
+	 */
+	protected byte [] payload() throws IOException {
+		byte [] text;
+		try (var in = ChunkBenchmark.class.getResourceAsStream("/" + resource)) {
+			if (in == null) {
+				throw new IOException("Resource not found: " + resource);
+			}
+			
+			text = in.readAllBytes();
+		}
+		
+		var chunk = new byte[chunkSize];
+		for (int i = 0; i < chunkSize; i += text.length) {
+			System.arraycopy(text, 0, chunk, i, Math.min(text.length, chunkSize - i));
+		}
+		
+		return chunk;
+	}
+}
@@ -0,0 +1,60 @@
+package com.colabriq.vertx.benchmark;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * A {@link WriteStream} that counts and drops everything written to it, acknowledging immediately.
+ */
+class DiscardWriteStream implements WriteStream<Buffer> {
+	long written = 0;
+	
+	@Override
+	public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+		return this;
+	}
+	
+	@Override
+	public WriteStream<Buffer> write(Buffer data) {
+		return write(data, null);
+	}
+	
+	@Override
+	public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
+		written += data.length();
+		if (handler != null) {
+			handler.handle(Future.succeededFuture());
+		}
+		
+		return this;
+	}
+	
+	@Override
+	public void end() {
+	}
+	
+	@Override
+	public void end(Handler<AsyncResult<Void>> handler) {
+		if (handler != null) {
+			handler.handle(Future.succeededFuture());
+		}
+	}
+	
+	@Override
+	public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+		return this;
+	}
+	
+	@Override
+	public boolean writeQueueFull() {
+		return false;
+	}
+	
+	@Override
+	public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+		return this;
+	}
+}
@@ -0,0 +1,71 @@
+package com.colabriq.vertx.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.colabriq.vertx.stream.HeapPipe;
+import com.colabriq.vertx.stream.InputWriteStream;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Writes a chunk into {@link InputWriteStream} while a drainer thread empties its {@link java.io.InputStream}.
+ * The writer waits for the drain handler whenever the write queue is full, as a pipe into it would.
+ */
+@State(Scope.Thread)
+public class InputWriteStreamBenchmark extends ChunkBenchmark {
+	@Param({ "kernel", "heap" })
+	public String pipe;
+	
+	private InputWriteStream stream;
+	private Buffer chunk;
+	private Thread drainer;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.stream = pipe.equals("heap") ? new InputWriteStream(new HeapPipe()) : new InputWriteStream();
+		this.chunk = Buffer.buffer(payload());
+		
+		var writer = Thread.currentThread();
+		stream.drainHandler(v -> LockSupport.unpark(writer));
+		
+		var in = stream.getInputStream();
+		this.drainer = new Thread(() -> {
+			var buf = new byte[64 * 1024];
+			try {
+				while (in.read(buf) >= 0) {
+				}
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "input-drainer");
+		
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		stream.end();
+		drainer.join();
+	}
+	
+	@Benchmark
+	public void write(Throughput throughput) {
+		while (stream.writeQueueFull()) {
+			LockSupport.park(this);
+		}
+		
+		stream.write(chunk);
+		throughput.add(chunkSize);
+	}
+}
@@ -0,0 +1,83 @@
+package com.colabriq.vertx.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.colabriq.vertx.stream.HeapPipe;
+import com.colabriq.vertx.stream.PipedWriteStream;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Writes a chunk into {@link PipedWriteStream} while a drainer thread empties the source channel.
+ * A heap pipe never reports its write queue full, so the writer is held to a bounded lead over the
+ * drainer, as a kernel pipe holds it by blocking, and the figures measure the bridge rather than heap growth.
+ */
+@State(Scope.Thread)
+public class PipedWriteStreamBenchmark extends ChunkBenchmark {
+	private static final long MAX_LEAD = 1024 * 1024;
+	
+	@Param({ "kernel", "heap" })
+	public String pipe;
+	
+	private PipedWriteStream stream;
+	private Buffer chunk;
+	private Thread drainer, writer;
+	
+	// bytes written, and read by the drainer
+	private long written = 0;
+	private final AtomicLong drained = new AtomicLong();
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.stream = pipe.equals("heap") ? new PipedWriteStream(new HeapPipe()) : new PipedWriteStream();
+		this.chunk = Buffer.buffer(payload());
+		
+		var source = stream.getSource();
+		this.writer = Thread.currentThread();
+		this.drainer = new Thread(() -> {
+			var buf = ByteBuffer.allocate(64 * 1024);
+			try {
+				int read;
+				while ((read = source.read(buf)) >= 0) {
+					buf.clear();
+					drained.addAndGet(read);
+					LockSupport.unpark(writer);
+				}
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "piped-drainer");
+		
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		stream.end();
+		drainer.join();
+	}
+	
+	@Benchmark
+	public void write(Throughput throughput) {
+		while (written - drained.get() > MAX_LEAD) {
+			LockSupport.park(this);
+		}
+		
+		stream.write(chunk);
+		written += chunkSize;
+		throughput.add(chunkSize);
+	}
+}
@@ -0,0 +1,50 @@
+package com.colabriq.vertx.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.colabriq.vertx.stream.ReadableWriteStream;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Writes a chunk into {@link ReadableWriteStream} and reads it back out through the channel.
+ * Ring size 0 benchmarks the locking queue.
+ */
+@State(Scope.Thread)
+public class ReadableWriteStreamBenchmark extends ChunkBenchmark {
+	@Param({ "0", "64" })
+	public int ringSize;
+	
+	private ReadableWriteStream stream;
+	private Buffer chunk;
+	private ByteBuffer dst;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.stream = ringSize > 0 ? new ReadableWriteStream(ringSize) : new ReadableWriteStream();
+		this.stream.setWriteQueueMaxSize(Integer.MAX_VALUE);
+		this.chunk = Buffer.buffer(payload());
+		this.dst = ByteBuffer.allocate(chunkSize);
+	}
+	
+	@Benchmark
+	public int writeThenRead(Throughput throughput) throws IOException {
+		stream.write(chunk);
+		
+		dst.clear();
+		while (dst.hasRemaining()) {
+			stream.read(dst);
+		}
+		
+		throughput.add(chunkSize);
+		return dst.position();
+	}
+}
@@ -0,0 +1,50 @@
+package com.colabriq.vertx.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark in this package with 1, 2, 4... up to N concurrent streams (one per thread),
+ * once for throughput (ops/s and MB/s) and once for per-chunk latency percentiles (p50/p99),
+ * with the GC profiler attached to report allocation rate.
+ * 
+ * Usage: StreamBenchmarks [max threads] [benchmark regex]
+ * Results are written as JSON into target/jmh.
+ */
+public class StreamBenchmarks {
+	private static final Path RESULTS = Path.of("target", "jmh");
+	
+	public static void main(String[] args) throws IOException, RunnerException {
+		var maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		var include = args.length > 1 ? args[1] : StreamBenchmarks.class.getPackageName() + ".*Benchmark";
+		
+		Files.createDirectories(RESULTS);
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			run(include, threads, Mode.Throughput, TimeUnit.SECONDS, "throughput");
+			run(include, threads, Mode.SampleTime, TimeUnit.MICROSECONDS, "latency");
+		}
+	}
+	
+	private static void run(String include, int threads, Mode mode, TimeUnit unit, String name) throws RunnerException {
+		var options = new OptionsBuilder()
+			.include(include)
+			.threads(threads)
+			.mode(mode)
+			.timeUnit(unit)
+			.addProfiler(GCProfiler.class)
+			.resultFormat(ResultFormatType.JSON)
+			.result(RESULTS.resolve(name + "-" + threads + "t.json").toString())
+			.build();
+			
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,25 @@
+package com.colabriq.vertx.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Auxiliary counter reported next to ops/s, so throughput benchmarks also show MB/s.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+	public double megabytes;
+	
+	@Setup(Level.Iteration)
+	public void reset() {
+		megabytes = 0;
+	}
+	
+	void add(int bytes) {
+		megabytes += bytes / 1_000_000d;
+	}
+}
@@ -0,0 +1,40 @@
+package com.colabriq.vertx.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.colabriq.vertx.stream.WritableReadStream;
+
+/**
+ * Writes a chunk into {@link WritableReadStream} and counts what reaches its data handler.
+ */
+@State(Scope.Thread)
+public class WritableReadStreamBenchmark extends ChunkBenchmark {
+	private WritableReadStream stream;
+	private ByteBuffer src;
+	private long received = 0;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.stream = new WritableReadStream();
+		this.stream.handler(buffer -> received += buffer.length());
+		this.src = ByteBuffer.wrap(payload());
+	}
+	
+	@Benchmark
+	public long write(Throughput throughput) throws IOException {
+		src.clear();
+		while (src.hasRemaining()) {
+			stream.write(src);
+		}
+		
+		throughput.add(chunkSize);
+		return received;
+	}
+}
@@ -0,0 +1,51 @@
+package com.colabriq.vertx.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.colabriq.vertx.stream.WriteOutputStream;
+
+/**
+ * Writes a chunk through {@link WriteOutputStream} into a discarding {@link io.vertx.core.streams.WriteStream},
+ * both as one array write and byte by byte the way encoders do.
+ * Buffer size 0 benchmarks unbuffered writes.
+ */
+@State(Scope.Thread)
+public class WriteOutputStreamBenchmark extends ChunkBenchmark {
+	@Param({ "0", "16384" })
+	public int bufferSize;
+	
+	private DiscardWriteStream target;
+	private WriteOutputStream stream;
+	private byte [] chunk;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.target = new DiscardWriteStream();
+		this.stream = new WriteOutputStream(target, bufferSize);
+		this.chunk = payload();
+	}
+	
+	@Benchmark
+	public long write(Throughput throughput) throws IOException {
+		stream.write(chunk, 0, chunk.length);
+		throughput.add(chunkSize);
+		return target.written;
+	}
+	
+	@Benchmark
+	public long writeBytewise(Throughput throughput) throws IOException {
+		for (int i = 0; i < chunk.length; i++) {
+			stream.write(chunk[i]);
+		}
+		
+		throughput.add(chunkSize);
+		return target.written;
+	}
+}